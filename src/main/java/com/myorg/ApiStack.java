@@ -3,23 +3,58 @@
  */
 package com.myorg;
 
+import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.RemovalPolicy;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.aws_apigatewayv2_integrations.HttpAlbIntegration;
+import software.amazon.awscdk.aws_apigatewayv2_integrations.HttpAlbIntegrationProps;
 import software.amazon.awscdk.services.apigateway.*;
+import software.amazon.awscdk.services.apigateway.ThrottleSettings;
+import software.amazon.awscdk.services.apigatewayv2.AddRoutesOptions;
+import software.amazon.awscdk.services.apigatewayv2.CfnStage;
+import software.amazon.awscdk.services.apigatewayv2.HttpApi;
+import software.amazon.awscdk.services.apigatewayv2.HttpApiProps;
+import software.amazon.awscdk.services.apigatewayv2.HttpMethod;
+import software.amazon.awscdk.services.apigatewayv2.MappingValue;
+import software.amazon.awscdk.services.apigatewayv2.ParameterMapping;
+import software.amazon.awscdk.services.cloudwatch.Metric;
+import software.amazon.awscdk.services.cloudwatch.MetricOptions;
+import software.amazon.awscdk.services.cloudwatch.MetricProps;
+import software.amazon.awscdk.services.elasticloadbalancingv2.ApplicationListener;
 import software.amazon.awscdk.services.elasticloadbalancingv2.NetworkLoadBalancer;
+import software.amazon.awscdk.services.iam.IRole;
+import software.amazon.awscdk.services.iam.Policy;
+import software.amazon.awscdk.services.iam.PolicyProps;
+import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.logs.LogGroup;
 import software.amazon.awscdk.services.logs.LogGroupProps;
 import software.amazon.awscdk.services.logs.RetentionDays;
+import software.amazon.awscdk.services.secretsmanager.Secret;
+import software.amazon.awscdk.services.secretsmanager.SecretProps;
+import software.amazon.awscdk.services.secretsmanager.SecretStringGenerator;
+import software.amazon.awscdk.services.ssm.StringParameter;
+import software.amazon.awscdk.services.ssm.StringParameterProps;
 import software.constructs.Construct;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class ApiStack extends Stack {
+    private static final String STAGE_NAME = "prod";
+    static final String FIRST_PARTY_API_KEY_SECRET_NAME = "ecommerce/api/first-party-key";
+    private final RestApi restApi;
+    private final HttpApi httpApi;
+
     public ApiStack(final Construct scope, final String id, final StackProps props, ApiStackProps apiStackPros) {
         super(scope, id, props);
+        ApiCacheSettings cacheSettings = apiStackPros.cacheSettings();
+        ApiThrottleSettings throttleSettings = apiStackPros.throttleSettings();
 
         LogGroup logGroup = new LogGroup(this, "ECommerceApiLogs", LogGroupProps.builder()
                 .logGroupName("ECommerceAPI")
@@ -27,11 +62,29 @@ public class ApiStack extends Stack {
                 .retention(RetentionDays.ONE_MONTH)
                 .build());
 
-        RestApi restApi = new RestApi(this, "RestApi", RestApiProps.builder()
+        if (apiStackPros.apiType() == ApiType.HTTP) {
+            this.restApi = null;
+            this.httpApi = this.createHttpApi(logGroup, apiStackPros);
+            return;
+        }
+
+        this.httpApi = null;
+        this.restApi = new RestApi(this, "RestApi", RestApiProps.builder()
                 .restApiName("ECommerceAPI")
                 .cloudWatchRole(true)
+                //開啟usage plan時，所有Method都需要帶API key (x-api-key header)：
+                //合作夥伴使用partner key，自家的前端與服務使用first-party key
+                .defaultMethodOptions(MethodOptions.builder()
+                        .apiKeyRequired(throttleSettings.usagePlanEnabled())
+                        .build())
                 .deployOptions(StageOptions.builder()
+                        .stageName(STAGE_NAME)
                         .loggingLevel(MethodLoggingLevel.INFO)
+                        .metricsEnabled(true) //每個Method各自的指標，SLO告警依照route計算
+                        //Stage快取：讀取路徑由API Gateway直接回應，不再經過NLB → ProductsService → DynamoDB。
+                        .cacheClusterEnabled(cacheSettings.enabled())
+                        .cacheClusterSize(cacheSettings.enabled() ? cacheSettings.clusterSize() : null)
+                        .methodOptions(this.createMethodOptions(cacheSettings, throttleSettings))
                         .accessLogDestination(new LogGroupLogDestination(logGroup))
                         .accessLogFormat(
                                 AccessLogFormat.jsonWithStandardFields(
@@ -54,6 +107,318 @@ public class ApiStack extends Stack {
         Resource productsResource = this.createProductsResource(restApi, apiStackPros);
 
         this.createProductEventsResource(restApi, apiStackPros, productsResource);
+
+        this.createThrottledResponses(restApi, throttleSettings);
+
+        Secret firstPartyKeySecret = null;
+        if (throttleSettings.usagePlanEnabled()) {
+            firstPartyKeySecret = this.createFirstPartyUsagePlan(restApi, throttleSettings);
+            this.createPartnerUsagePlan(restApi, throttleSettings);
+        }
+
+        if (apiStackPros.cacheFlushSettings().enabled()) {
+            this.grantProductsCacheInvalidation(restApi, apiStackPros.productsServiceTaskRole(), firstPartyKeySecret);
+        }
+    }
+
+    /**
+     * API Gateway的指標，REST與HTTP模式的指標維度不同，由這裡統一提供給儀表板與告警使用。
+     */
+    public Metric metricLatency(MetricOptions options) {
+        return restApi != null ? restApi.metricLatency(options) : httpApi.metricLatency(options);
+    }
+
+    public Metric metricIntegrationLatency(MetricOptions options) {
+        return restApi != null ? restApi.metricIntegrationLatency(options) : httpApi.metricIntegrationLatency(options);
+    }
+
+    public Metric metricCount(MetricOptions options) {
+        return restApi != null ? restApi.metricCount(options) : httpApi.metricCount(options);
+    }
+
+    public Metric metricServerError(MetricOptions options) {
+        return restApi != null ? restApi.metricServerError(options) : httpApi.metricServerError(options);
+    }
+
+    /**
+     * 單一route的指標(stage需要開啟detailed metrics)，resource為API的路徑，例如 "/products/{id}"。
+     */
+    public Metric metricRouteLatency(String method, String resource, MetricOptions options) {
+        return this.metricRoute("Latency", method, resource, options);
+    }
+
+    public Metric metricRouteCount(String method, String resource, MetricOptions options) {
+        return this.metricRoute("Count", method, resource, options);
+    }
+
+    public Metric metricRouteServerError(String method, String resource, MetricOptions options) {
+        return this.metricRoute(restApi != null ? "5XXError" : "5xx", method, resource, options);
+    }
+
+    private Metric metricRoute(String metricName, String method, String resource, MetricOptions options) {
+        //REST API以ApiName/Stage/Method/Resource區分，HTTP API以ApiId/Stage/Route區分
+        Map<String, String> dimensions = restApi != null
+                ? Map.of("ApiName", restApi.getRestApiName(), "Stage", STAGE_NAME,
+                "Method", method, "Resource", resource)
+                : Map.of("ApiId", httpApi.getApiId(), "Stage", "$default", "Route", method + " " + resource);
+        return new Metric(MetricProps.builder()
+                .namespace("AWS/ApiGateway")
+                .metricName(metricName)
+                .dimensionsMap(dimensions)
+                .statistic(options.getStatistic())
+                .period(options.getPeriod())
+                .label(options.getLabel())
+                .build());
+    }
+
+    /**
+     * HTTP API + VPC Link v2直接連到ALB，不經過NLB，也沒有REST API的額外處理，延遲與費用都較低。
+     * HTTP API沒有stage快取、request validator與usage plan，這些功能需要時請使用REST模式。
+     */
+    private HttpApi createHttpApi(LogGroup logGroup, ApiStackProps apiStackProps) {
+        HttpApi httpApi = new HttpApi(this, "HttpApi", HttpApiProps.builder()
+                .apiName("ECommerceAPI")
+                .createDefaultStage(true)
+                .build());
+
+        //與REST API相同格式的JSON access log
+        CfnStage defaultStage = (CfnStage) Objects.requireNonNull(httpApi.getDefaultStage()).getNode()
+                .getDefaultChild();
+        defaultStage.setAccessLogSettings(CfnStage.AccessLogSettingsProperty.builder()
+                .destinationArn(logGroup.getLogGroupArn())
+                .format("{\"requestId\":\"$context.requestId\",\"ip\":\"$context.identity.sourceIp\"," +
+                        "\"requestTime\":\"$context.requestTime\",\"httpMethod\":\"$context.httpMethod\"," +
+                        "\"routeKey\":\"$context.routeKey\",\"status\":\"$context.status\"," +
+                        "\"protocol\":\"$context.protocol\",\"responseLength\":\"$context.responseLength\"," +
+                        "\"integrationLatency\":\"$context.integrationLatency\"}")
+                .build());
+
+        //HTTP API沒有usage plan，也不能自訂429回應，只能在stage上依照route節流。
+        ApiThrottleSettings throttleSettings = apiStackProps.throttleSettings();
+        defaultStage.setDefaultRouteSettings(CfnStage.RouteSettingsProperty.builder()
+                .detailedMetricsEnabled(true)
+                .throttlingRateLimit(throttleSettings.readRateLimit())
+                .throttlingBurstLimit(throttleSettings.readBurstLimit())
+                .build());
+        //RouteSettings是未定型別的JSON，CDK不會轉換key，需要直接使用CloudFormation的PascalCase名稱
+        Map<String, Object> writeRouteSettings = Map.of(
+                "DetailedMetricsEnabled", true,
+                "ThrottlingRateLimit", throttleSettings.writeRateLimit(),
+                "ThrottlingBurstLimit", throttleSettings.writeBurstLimit());
+        defaultStage.setRouteSettings(Map.of(
+                "POST /products", writeRouteSettings,
+                "PUT /products/{id}", writeRouteSettings,
+                "DELETE /products/{id}", writeRouteSettings));
+
+        // GET /products
+        // GET /products?code=CODE1
+        // POST /products
+        httpApi.addRoutes(AddRoutesOptions.builder()
+                .path("/products")
+                .methods(Arrays.asList(HttpMethod.GET, HttpMethod.POST))
+                .integration(this.createAlbIntegration("ProductsIntegration", apiStackProps,
+                        apiStackProps.productsServiceListener(), "/api/products"))
+                .build());
+
+        // GET /products/{id}
+        // PUT /products/{id}
+        // DELETE /products/{id}
+        httpApi.addRoutes(AddRoutesOptions.builder()
+                .path("/products/{id}")
+                .methods(Arrays.asList(HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE))
+                .integration(this.createAlbIntegration("ProductIdIntegration", apiStackProps,
+                        apiStackProps.productsServiceListener(), "/api/products/$request.path.id"))
+                .build());
+
+        // GET /products/events?eventType=PRODUCT_CREATE&limit=10&from=1&to=5&exclusiveStartTimestamp=123
+        httpApi.addRoutes(AddRoutesOptions.builder()
+                .path("/products/events")
+                .methods(Collections.singletonList(HttpMethod.GET))
+                .integration(this.createAlbIntegration("ProductEventsIntegration", apiStackProps,
+                        apiStackProps.auditServiceListener(), "/api/products/events"))
+                .build());
+        return httpApi;
+    }
+
+    /**
+     * 透過VPC Link v2轉送到ALB listener，並改寫成服務的路徑，同時把requestId帶到header。
+     */
+    private HttpAlbIntegration createAlbIntegration(String id, ApiStackProps apiStackProps,
+                                                    ApplicationListener listener, String path) {
+        return new HttpAlbIntegration(id, listener, HttpAlbIntegrationProps.builder()
+                .vpcLink(apiStackProps.httpVpcLink())
+                .parameterMapping(new ParameterMapping()
+                        .overwritePath(MappingValue.custom(path))
+                        .appendHeader("requestId", MappingValue.contextVariable("requestId")))
+                .build());
+    }
+
+    /**
+     * 各Method的快取與節流設定，key格式為 "/{resourcePath}/{httpMethod}"。
+     * 只有讀取的GET開啟快取，會異動資料的PUT/DELETE明確關閉，避免回應被快取住。
+     * 讀取大多由快取回應，節流較寬；寫入每次都會打到ProductsService與DynamoDB，節流較嚴，
+     * 超過時API Gateway直接回應429，尖峰流量不會變成後端的5xx。
+     */
+    private Map<String, MethodDeploymentOptions> createMethodOptions(ApiCacheSettings cacheSettings,
+                                                                     ApiThrottleSettings throttleSettings) {
+        boolean cachingEnabled = cacheSettings.enabled();
+        Map<String, MethodDeploymentOptions> methodOptions = new HashMap<>();
+
+        methodOptions.put("/products/GET", MethodDeploymentOptions.builder()
+                .cachingEnabled(cachingEnabled)
+                .cacheTtl(cachingEnabled ? cacheSettings.productsTtl() : null)
+                .throttlingRateLimit(throttleSettings.readRateLimit())
+                .throttlingBurstLimit(throttleSettings.readBurstLimit())
+                .build());
+        methodOptions.put("/products/{id}/GET", MethodDeploymentOptions.builder()
+                .cachingEnabled(cachingEnabled)
+                .cacheTtl(cachingEnabled ? cacheSettings.productByIdTtl() : null)
+                .throttlingRateLimit(throttleSettings.readRateLimit())
+                .throttlingBurstLimit(throttleSettings.readBurstLimit())
+                .build());
+        methodOptions.put("/products/events/GET", MethodDeploymentOptions.builder()
+                .throttlingRateLimit(throttleSettings.readRateLimit())
+                .throttlingBurstLimit(throttleSettings.readBurstLimit())
+                .build());
+        methodOptions.put("/products/POST", MethodDeploymentOptions.builder()
+                .throttlingRateLimit(throttleSettings.writeRateLimit())
+                .throttlingBurstLimit(throttleSettings.writeBurstLimit())
+                .build());
+        methodOptions.put("/products/{id}/PUT", MethodDeploymentOptions.builder()
+                .cachingEnabled(false)
+                .throttlingRateLimit(throttleSettings.writeRateLimit())
+                .throttlingBurstLimit(throttleSettings.writeBurstLimit())
+                .build());
+        methodOptions.put("/products/{id}/DELETE", MethodDeploymentOptions.builder()
+                .cachingEnabled(false)
+                .throttlingRateLimit(throttleSettings.writeRateLimit())
+                .throttlingBurstLimit(throttleSettings.writeBurstLimit())
+                .build());
+        return methodOptions;
+    }
+
+    /**
+     * 被節流(THROTTLED)或超過usage plan配額(QUOTA_EXCEEDED)時回應429與Retry-After，
+     * 用戶端可以依照Retry-After退避後重試，而不是把502/503當成服務故障。
+     */
+    private void createThrottledResponses(RestApi restApi, ApiThrottleSettings throttleSettings) {
+        Map<String, String> templates = Map.of("application/json",
+                "{\"message\":$context.error.messageString,\"requestId\":\"$context.requestId\"}");
+
+        restApi.addGatewayResponse("ThrottledResponse", GatewayResponseOptions.builder()
+                .type(ResponseType.THROTTLED)
+                .statusCode("429")
+                .responseHeaders(Map.of("Retry-After", "'" + throttleSettings.retryAfterSeconds() + "'"))
+                .templates(templates)
+                .build());
+
+        //配額以UTC日為單位重置，無法在部署時算出剩餘秒數，固定請用戶端一小時後再試。
+        restApi.addGatewayResponse("QuotaExceededResponse", GatewayResponseOptions.builder()
+                .type(ResponseType.QUOTA_EXCEEDED)
+                .statusCode("429")
+                .responseHeaders(Map.of("Retry-After", "'3600'"))
+                .templates(templates)
+                .build());
+    }
+
+    /**
+     * 自家用戶端的usage plan：不設每日配額，速率與讀取的stage節流相同，實際仍受各Method的節流限制。
+     * API key的值由Secrets Manager產生(ecommerce/api/first-party-key)，前端與服務從這裡讀取，不需要查詢API Gateway。
+     */
+    private Secret createFirstPartyUsagePlan(RestApi restApi, ApiThrottleSettings throttleSettings) {
+        Secret firstPartyKeySecret = new Secret(this, "FirstPartyApiKeySecret", SecretProps.builder()
+                .secretName(FIRST_PARTY_API_KEY_SECRET_NAME)
+                .generateSecretString(SecretStringGenerator.builder()
+                        .excludePunctuation(true)
+                        .includeSpace(false)
+                        .passwordLength(40) //API key至少20個字元
+                        .build())
+                .build());
+
+        UsagePlan usagePlan = restApi.addUsagePlan("FirstPartyUsagePlan", UsagePlanProps.builder()
+                .name("ECommerceFirstParty")
+                .throttle(ThrottleSettings.builder()
+                        .rateLimit(throttleSettings.readRateLimit())
+                        .burstLimit(throttleSettings.readBurstLimit())
+                        .build())
+                .build());
+        usagePlan.addApiStage(UsagePlanPerApiStage.builder()
+                .api(restApi)
+                .stage(restApi.getDeploymentStage())
+                .build());
+
+        usagePlan.addApiKey(restApi.addApiKey("FirstPartyApiKey", ApiKeyOptions.builder()
+                .apiKeyName("ecommerce-first-party")
+                .value(firstPartyKeySecret.getSecretValue().unsafeUnwrap()) //CloudFormation dynamic reference，不會出現在template中
+                .build()));
+        return firstPartyKeySecret;
+    }
+
+    /**
+     * 合作夥伴的usage plan：以API key識別，有獨立的速率限制與每日配額。
+     * API key的值部署後到API Gateway console或 aws apigateway get-api-key --include-value 取得。
+     */
+    private void createPartnerUsagePlan(RestApi restApi, ApiThrottleSettings throttleSettings) {
+        UsagePlan usagePlan = restApi.addUsagePlan("PartnerUsagePlan", UsagePlanProps.builder()
+                .name("ECommercePartner")
+                .throttle(ThrottleSettings.builder()
+                        .rateLimit(throttleSettings.partnerRateLimit())
+                        .burstLimit(throttleSettings.partnerBurstLimit())
+                        .build())
+                .quota(QuotaSettings.builder()
+                        .limit(throttleSettings.partnerQuotaPerDay())
+                        .period(Period.DAY)
+                        .build())
+                .build());
+        usagePlan.addApiStage(UsagePlanPerApiStage.builder()
+                .api(restApi)
+                .stage(restApi.getDeploymentStage())
+                .build());
+
+        usagePlan.addApiKey(restApi.addApiKey("PartnerApiKey", ApiKeyOptions.builder()
+                .apiKeyName("ecommerce-partner")
+                .build()));
+    }
+
+    /**
+     * PUT/DELETE /products/{id}成功後，ProductsService帶著 Cache-Control: max-age=0 (SigV4簽章)
+     * 重新請求 GET /products/{id}、GET /products?code=... 與 GET /products(列表)，讓API Gateway清除這些快取。
+     * ProductsService比ApiStack先部署，無法直接取得stage URL，改由固定名稱的SSM參數傳遞；
+     * 開啟usage plan時，請求還需要帶first-party API key。
+     * 參數尚未建立或清除失敗時不重試，列表最多過期apiCacheProductsTtlSeconds、單筆最多過期apiCacheProductByIdTtlSeconds。
+     */
+    private void grantProductsCacheInvalidation(RestApi restApi, IRole productsServiceTaskRole,
+                                                Secret firstPartyKeySecret) {
+        StringParameter stageUrlParameter = new StringParameter(this, "StageUrlParameter",
+                StringParameterProps.builder()
+                        .parameterName(ApiCacheFlushSettings.STAGE_URL_PARAMETER_NAME)
+                        .stringValue(restApi.getUrl())
+                        .build());
+
+        //清除快取需要execute-api:InvalidateCache權限，這裡只開放給ProductsService的task role。
+        //權限都放在ApiStack自己的Policy：用grantRead會寫入task role在ProductsService的DefaultPolicy，
+        //讓ProductsService反過來依賴ApiStack，形成循環依賴。
+        List<PolicyStatement> statements = new ArrayList<>();
+        statements.add(PolicyStatement.Builder.create()
+                .actions(Collections.singletonList("execute-api:InvalidateCache"))
+                .resources(List.of(
+                        restApi.arnForExecuteApi("GET", "/products", STAGE_NAME),
+                        restApi.arnForExecuteApi("GET", "/products/*", STAGE_NAME)))
+                .build());
+        statements.add(PolicyStatement.Builder.create()
+                .actions(List.of("ssm:GetParameter", "ssm:GetParameters"))
+                .resources(Collections.singletonList(stageUrlParameter.getParameterArn()))
+                .build());
+        if (firstPartyKeySecret != null) {
+            statements.add(PolicyStatement.Builder.create()
+                    .actions(List.of("secretsmanager:GetSecretValue", "secretsmanager:DescribeSecret"))
+                    .resources(Collections.singletonList(firstPartyKeySecret.getSecretArn()))
+                    .build());
+        }
+        new Policy(this, "ProductsCacheInvalidationPolicy", PolicyProps.builder()
+                .roles(Collections.singletonList(productsServiceTaskRole))
+                .statements(statements)
+                .build());
     }
 
     private void createProductEventsResource(RestApi restApi, ApiStackProps apiStackProps,
@@ -120,6 +485,9 @@ public class ApiStack extends Stack {
                                         .vpcLink(apiStackProps.vpcLink())
                                         .connectionType(ConnectionType.VPC_LINK)
                                         .requestParameters(productsIntegrationParameters)
+                                        //依照code區分快取，不同code不會拿到彼此的結果。
+                                        .cacheNamespace("products")
+                                        .cacheKeyParameters(Collections.singletonList("method.request.querystring.code"))
                                         .build())
                                 .build()),
                 MethodOptions.builder()
@@ -231,6 +599,9 @@ public class ApiStack extends Stack {
                                 .vpcLink(apiStackProps.vpcLink())
                                 .connectionType(ConnectionType.VPC_LINK)
                                 .requestParameters(productIdIntegrationParameters)
+                                //依照id區分快取
+                                .cacheNamespace("productId")
+                                .cacheKeyParameters(Collections.singletonList("method.request.path.id"))
                                 .build())
                         .build()), MethodOptions.builder()
                 .requestParameters(productIdMethodParameters) //加入檢查是否帶參數，API GATEWAY在此做第一次驗證。
@@ -256,8 +627,83 @@ public class ApiStack extends Stack {
     }
 }
 
+/**
+ * REST：REST API → VpcLink → NLB → 服務；HTTP：HTTP API → VPC Link v2 → ALB → 服務。
+ */
+enum ApiType {
+    REST,
+    HTTP
+}
+
+/**
+ * REST模式使用networkLoadBalancer與vpcLink，HTTP模式使用httpVpcLink與各服務的ALB listener。
+ */
 record ApiStackProps(
+        ApiType apiType,
         NetworkLoadBalancer networkLoadBalancer,
-        VpcLink vpcLink
+        VpcLink vpcLink,
+        software.amazon.awscdk.services.apigatewayv2.VpcLink httpVpcLink,
+        ApplicationListener productsServiceListener,
+        ApplicationListener auditServiceListener,
+        IRole productsServiceTaskRole,
+        ApiCacheSettings cacheSettings,
+        ApiCacheFlushSettings cacheFlushSettings,
+        ApiThrottleSettings throttleSettings
+) {
+}
+
+/**
+ * API Gateway stage快取設定，clusterSize單位為GB(例如 "0.5"、"1.6")。
+ */
+record ApiCacheSettings(
+        boolean enabled,
+        String clusterSize,
+        Duration productsTtl,
+        Duration productByIdTtl
+) {
+}
+
+/**
+ * ProductsService寫入後清除API Gateway快取的設定，ApiStack與ProductsServiceStack共用。
+ *
+ * @param enabled        REST模式、開啟stage快取，且任務可以連到公開的API endpoint(不在private isolated subnet)
+ * @param apiKeyRequired 開啟usage plan時，清除快取的請求也需要帶first-party API key
+ */
+record ApiCacheFlushSettings(
+        boolean enabled,
+        boolean apiKeyRequired
+) {
+    static final String STAGE_URL_PARAMETER_NAME = "/ecommerce/api/stage-url";
+
+    /**
+     * ProductsService讀取的環境變數，未開啟時服務只依TTL讓快取過期。
+     */
+    Map<String, String> environment() {
+        Map<String, String> environment = new HashMap<>();
+        environment.put("AWS_API_CACHE_FLUSH_ENABLED", String.valueOf(enabled));
+        if (enabled) {
+            environment.put("AWS_API_STAGE_URL_PARAMETER", STAGE_URL_PARAMETER_NAME);
+            if (apiKeyRequired) {
+                environment.put("AWS_API_KEY_SECRET_NAME", ApiStack.FIRST_PARTY_API_KEY_SECRET_NAME);
+            }
+        }
+        return environment;
+    }
+}
+
+/**
+ * API Gateway節流設定(每秒請求數/瞬間可接受的請求數)，讀取與寫入分開設定，
+ * usage plan開啟時所有呼叫都需要API key，自家用戶端使用first-party key，合作夥伴使用partner的額度。
+ */
+record ApiThrottleSettings(
+        int readRateLimit,
+        int readBurstLimit,
+        int writeRateLimit,
+        int writeBurstLimit,
+        int retryAfterSeconds,
+        boolean usagePlanEnabled,
+        int partnerRateLimit,
+        int partnerBurstLimit,
+        int partnerQuotaPerDay
 ) {
 }
@@ -1,10 +1,17 @@
 package com.myorg;
 
+import software.amazon.awscdk.ArnComponents;
 import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.RemovalPolicy;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.applicationautoscaling.AdjustmentType;
+import software.amazon.awscdk.services.applicationautoscaling.BasicStepScalingPolicyProps;
+import software.amazon.awscdk.services.applicationautoscaling.CfnScalingPolicy;
+import software.amazon.awscdk.services.applicationautoscaling.CfnScalingPolicyProps;
 import software.amazon.awscdk.services.applicationautoscaling.EnableScalingProps;
+import software.amazon.awscdk.services.applicationautoscaling.ScalingInterval;
+import software.amazon.awscdk.services.cloudwatch.MetricOptions;
 import software.amazon.awscdk.services.dynamodb.*;
 import software.amazon.awscdk.services.ec2.Peer;
 import software.amazon.awscdk.services.ec2.Port;
@@ -14,10 +21,37 @@ import software.amazon.awscdk.services.ecs.*;
 import software.amazon.awscdk.services.ecs.Protocol;
 import software.amazon.awscdk.services.elasticloadbalancingv2.*;
 import software.amazon.awscdk.services.elasticloadbalancingv2.HealthCheck;
-import software.amazon.awscdk.services.iam.ManagedPolicy;
+import software.amazon.awscdk.services.glue.CfnDatabase;
+import software.amazon.awscdk.services.glue.CfnDatabaseProps;
+import software.amazon.awscdk.services.glue.CfnTable;
+import software.amazon.awscdk.services.glue.CfnTableProps;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.iam.Role;
+import software.amazon.awscdk.services.iam.RoleProps;
+import software.amazon.awscdk.services.iam.ServicePrincipal;
+import software.amazon.awscdk.services.kinesisfirehose.CfnDeliveryStream;
+import software.amazon.awscdk.services.kinesisfirehose.CfnDeliveryStreamProps;
+import software.amazon.awscdk.services.lambda.Code;
+import software.amazon.awscdk.services.lambda.FilterCriteria;
+import software.amazon.awscdk.services.lambda.FilterRule;
+import software.amazon.awscdk.services.lambda.Function;
+import software.amazon.awscdk.services.lambda.FunctionProps;
+import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.StartingPosition;
+import software.amazon.awscdk.services.lambda.eventsources.DynamoEventSource;
+import software.amazon.awscdk.services.lambda.eventsources.DynamoEventSourceProps;
+import software.amazon.awscdk.services.lambda.eventsources.SqsEventSource;
+import software.amazon.awscdk.services.lambda.eventsources.SqsEventSourceProps;
 import software.amazon.awscdk.services.logs.LogGroup;
 import software.amazon.awscdk.services.logs.LogGroupProps;
 import software.amazon.awscdk.services.logs.RetentionDays;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.BucketEncryption;
+import software.amazon.awscdk.services.s3.BucketProps;
+import software.amazon.awscdk.services.s3.LifecycleRule;
+import software.amazon.awscdk.services.s3.StorageClass;
+import software.amazon.awscdk.services.s3.Transition;
 import software.amazon.awscdk.services.sns.StringConditions;
 import software.amazon.awscdk.services.sns.SubscriptionFilter;
 import software.amazon.awscdk.services.sns.Topic;
@@ -30,8 +64,28 @@ import software.amazon.awscdk.services.sqs.QueueProps;
 import software.constructs.Construct;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class AuditServiceStack extends Stack {
+    /**
+     * product-events的批次消費者，handler為index.handler。
+     */
+    private static final String PRODUCT_EVENTS_CONSUMER_CODE = "src/main/resources/lambda/product-events-consumer";
+    /**
+     * consumer Lambda的timeout。SQS event source的visibility timeout至少要是函式timeout的6倍，
+     * 否則還在處理中(含重試)的訊息會重新出現在佇列，被另一個Lambda重複處理。
+     */
+    private static final Duration PRODUCT_EVENTS_CONSUMER_TIMEOUT = Duration.seconds(20);
+    private static final Duration PRODUCT_EVENTS_CONSUMER_VISIBILITY_TIMEOUT = Duration.seconds(120);
+
+    /**
+     * TTL到期被DynamoDB刪除的events，轉成一般JSON後送到Firehose，由Firehose轉成Parquet寫入S3。
+     */
+    private static final String EVENTS_ARCHIVE_CODE = "src/main/resources/lambda/events-archive";
+
+    private final ApplicationListener applicationListener;
+    private final ServiceMonitoring monitoring;
+
     public AuditServiceStack(final Construct scope, final String id,
                              final StackProps props, AuditServiceProps auditServiceProps) {
         super(scope, id, props);
@@ -48,12 +102,45 @@ public class AuditServiceStack extends Stack {
                         .type(AttributeType.STRING)
                         .build())
                 .timeToLiveAttribute("ttl")
+                .stream(StreamViewType.OLD_IMAGE) //TTL刪除時取得被刪除的資料，封存到S3
                 .billingMode(BillingMode.PROVISIONED) //建立具有一定容量的表provisioned mode
                 .billingMode(BillingMode.PAY_PER_REQUEST) //建立on-demand mode依照實際流量計費
 //                .readCapacity(1)
 //                .writeCapacity(1)
                 .build());
 
+        /*
+        寫入分片：pk加上 "#{shard}" 後綴，shard = crc32(messageId) % shardCount，
+        同一個商品或同一種事件大量寫入時，會分散到shardCount個partition，不會集中在單一熱點partition。
+        讀取時對base table分別查詢 pk = "{key}#0" ~ "{key}#{shardCount-1}" 再依sk合併(scatter-gather)。
+        不建立以shard為partition key的GSI：shard只有shardCount種值，所有寫入會複製到少數幾個GSI partition，
+        GSI被節流時會反過來限制base table的寫入，等於把熱點搬回來。
+         */
+
+        /*
+        GET /products/events?eventType=...&from=...&to=...&exclusiveStartTimestamp=...
+        依事件種類與時間區間查詢，只投影API回應需要的欄位。
+        eventType只有少數幾種值，partition key同樣加上寫入分片：eventTypeShard = "{eventType}#{shard}"，
+        讀取時對 "{eventType}#0" ~ "{eventType}#{shardCount-1}" 各做一次區間Query，再依createdAt合併。
+        DynamoDB每次更新table只能新增或刪除一個GSI，曾經部署過shardIdx的環境需要分兩次部署：
+        先以auditEventTypeIndexEnabled=false部署(刪除shardIdx)，再改為true部署(建立eventTypeIdx)。
+         */
+        if (auditServiceProps.eventTypeIndexEnabled()) {
+            eventsDdb.addGlobalSecondaryIndex(GlobalSecondaryIndexProps.builder()
+                    .indexName("eventTypeIdx")
+                    .partitionKey(Attribute.builder()
+                            .name(EventsTableKeys.EVENT_TYPE_SHARD_ATTRIBUTE)
+                            .type(AttributeType.STRING)
+                            .build())
+                    .sortKey(Attribute.builder()
+                            .name(EventsTableKeys.CREATED_AT_ATTRIBUTE)
+                            .type(AttributeType.NUMBER)
+                            .build())
+                    .projectionType(ProjectionType.INCLUDE)
+                    .nonKeyAttributes(Arrays.asList("eventType", "messageId", "info"))
+                    .build());
+        }
+
         //建立AWS SQS
         Queue productEventsDlq = new Queue(this, "ProductEventsDlq",
                 QueueProps.builder()
@@ -64,6 +151,9 @@ public class AuditServiceStack extends Stack {
         Queue productEventsQueue = new Queue(this, "ProductEventsQueue",
                 QueueProps.builder()
                         .queueName("product-events")
+                        //由服務輪詢時維持預設30秒
+                        .visibilityTimeout(auditServiceProps.productEventsConsumerSettings().enabled() ?
+                                PRODUCT_EVENTS_CONSUMER_VISIBILITY_TIMEOUT : null)
                         .enforceSsl(false)
                         .encryption(QueueEncryption.UNENCRYPTED)
                         .deadLetterQueue(DeadLetterQueue.builder()
@@ -107,77 +197,97 @@ public class AuditServiceStack extends Stack {
                         .filterPolicy(productsFailureFilterPolicy)
                         .build()));
 
+        if (auditServiceProps.eventsArchiveEnabled()) {
+            this.createEventsArchive(eventsDdb);
+        }
+
+        if (auditServiceProps.productEventsConsumerSettings().enabled()) {
+            this.createProductEventsConsumer(eventsDdb, productEventsQueue, auditServiceProps.eventsShardCount(),
+                    auditServiceProps.productEventsConsumerSettings());
+        }
+
         //Fargate 是一種無伺服器容器運行方式，讓用戶不需要管理底層伺服器基礎設施，專注於容器的運行和管理。
         FargateTaskDefinition fargateTaskDefinition = new FargateTaskDefinition(this, "TaskDefinition",
                 FargateTaskDefinitionProps.builder()
                         .family("audit-service")
-                        .cpu(512)
-                        .memoryLimitMiB(1024)
+                        .cpu(auditServiceProps.sizing().taskCpu())
+                        .memoryLimitMiB(auditServiceProps.sizing().taskMemoryMiB())
+                        //Graviton(ARM64)或x86，image需要有對應架構(multi-arch manifest)。
+                        .runtimePlatform(RuntimePlatform.builder()
+                                .cpuArchitecture(auditServiceProps.cpuArchitecture())
+                                .operatingSystemFamily(OperatingSystemFamily.LINUX)
+                                .build())
                         .build());
-        fargateTaskDefinition.getTaskRole().addManagedPolicy(
-                ManagedPolicy.fromAwsManagedPolicyName("AWSXrayWriteOnlyAccess"));
         productEventsQueue.grantConsumeMessages(fargateTaskDefinition.getTaskRole());
         productFailureEventsQueue.grantConsumeMessages(fargateTaskDefinition.getTaskRole());
         eventsDdb.grantReadWriteData(fargateTaskDefinition.getTaskRole());
 
-        AwsLogDriver awsLogDriver = new AwsLogDriver(AwsLogDriverProps.builder()
-                .logGroup(new LogGroup(this, "LogGroup", LogGroupProps.builder() //LogGroup可以理解為資料夾
-                        .logGroupName("AuditService")
-                        .removalPolicy(RemovalPolicy.DESTROY) //移除方案，如果刪除這個Stack，那此資源也會跟著被刪除。
-                        .retention(RetentionDays.ONE_MONTH) //保留日誌的時間長度
-                        .build()))
-                .streamPrefix("AuditService")//文件前綴名稱
-                .build());
+        //應用程式的log：預設為awslogs non-blocking，開啟FireLens時由Fluent Bit分流
+        LogDriver logDriver = ServiceLogging.appLogDriver(this, fargateTaskDefinition,
+                auditServiceProps.networkSettings(), auditServiceProps.logRoutingSettings(), "AuditService");
 
         //傳遞到應用程式中的環境變數
         Map<String, String> envVariables = new HashMap<>();
         envVariables.put("Server_PORT", "9090");
         envVariables.put("AWS_REGION", this.getRegion());
-        envVariables.put("AWS_XRAY_DAEMON_ADDRESS", "0.0.0.0:2000");
-        envVariables.put("AWS_XRAY_CONTEXT_MISSING", "IGNORE_ERROR");
+        envVariables.putAll(OtelCollectorSidecar.environment("auditservice"));
+        //X-Ray取樣規則：PRODUCT_FAILURE事件全部取樣(需要在span加上eventType attribute)，其餘事件量大，取樣率低。
+        List<String> samplingRules = TracingSampling.addRules(this, "auditservice", List.of(
+                        new SamplingRoute("ProductFailure", "*", "*",
+                                Map.of("eventType", "PRODUCT_FAILURE"), 1.0, 5, 100),
+                        SamplingRoute.route("EventsQuery", "GET", "/api/products/events", 0.05, 1, 200)),
+                SamplingRoute.fallback("Default", 0.02, 1));
+        envVariables.putAll(TracingSampling.environment(samplingRules));
         envVariables.put("AWS_XRAY_TRACING_NAME", "auditservice");
         envVariables.put("AWS_SQS_QUEUE_PRODUCT_EVENTS_URL", productEventsQueue.getQueueUrl());
+        //product-events改由Lambda批次消費時，服務不再輪詢此佇列(lambda / service)
+        envVariables.put("AWS_SQS_QUEUE_PRODUCT_EVENTS_CONSUMER",
+                auditServiceProps.productEventsConsumerSettings().enabled() ? "lambda" : "service");
         envVariables.put("AWS_SQS_QUEUE_PRODUCT_FAILURE_EVENTS_URL", productFailureEventsQueue.getQueueUrl());
         envVariables.put("AWS_EVENTS_DDB", eventsDdb.getTableName());
+        envVariables.putAll(EventsTableKeys.environment("AWS_EVENTS_DDB_", auditServiceProps.eventsShardCount()));
+        //沒有eventTypeIdx時為空字串，服務改用base table查詢
+        envVariables.put("AWS_EVENTS_DDB_EVENT_TYPE_INDEX",
+                auditServiceProps.eventTypeIndexEnabled() ? "eventTypeIdx" : "");
+        //GET /products/events的區間查詢結果放在共用快取，events只會新增，用短TTL即可。
+        envVariables.put("AWS_CACHE_ENDPOINT", auditServiceProps.cacheEndpoint().primaryAddress());
+        envVariables.put("AWS_CACHE_READER_ENDPOINT", auditServiceProps.cacheEndpoint().readerAddress());
+        envVariables.put("AWS_CACHE_PORT", auditServiceProps.cacheEndpoint().port());
+        envVariables.put("AWS_CACHE_PRODUCT_EVENTS_TTL_SECONDS", "30");
         envVariables.put("LOGGING_LEVEL_ROOT", "INFO");
+        envVariables.put("JAVA_TOOL_OPTIONS", auditServiceProps.profilingSettings().javaToolOptions(
+                auditServiceProps.jvmSettings().javaToolOptions(auditServiceProps.sizing().jvmHeapOptions())));
+        envVariables.putAll(ContinuousProfiling.environment(this, fargateTaskDefinition.getTaskRole(),
+                "AuditService", auditServiceProps.profilingSettings()));
 
-        fargateTaskDefinition.addContainer("AuditServiceContainer",
+        ContainerDefinition appContainer = fargateTaskDefinition.addContainer("AuditServiceContainer",
                 ContainerDefinitionOptions.builder()
                         //定義image映像位置與版本號，此範例中是使用存放於AWS ECR中的Image。
                         .image(ContainerImage.fromEcrRepository(auditServiceProps.repository(), "1.6.0"))
                         .containerName("auditService")
-                        .logging(awsLogDriver) //將log儲存到CloudWatch
+                        .logging(logDriver)
                         .portMappings(Collections.singletonList(PortMapping.builder()
                                 .containerPort(9090)
                                 .protocol(Protocol.TCP)
                                 .build()))
                         .environment(envVariables) //這個環境變數會傳遞到AuditService應用程式中，作為port或其他變數使用。
-                        .cpu(384)
-                        .memoryLimitMiB(896)
+                        .healthCheck(auditServiceProps.rolloutSettings().appHealthCheck(9090))
+                        .cpu(auditServiceProps.sizing().containerCpu())
+                        //只設定保留值(soft limit)，不設上限，記憶體不夠時可以使用task中其他容器沒用到的部分，不會被OOM kill。
+                        .memoryReservationMiB(auditServiceProps.sizing().containerMemoryMiB())
                         .build()); //新增一個容器
 
-        //為AWS X-Ray單獨分配一個容器，不應該把AWS X-Ray放入其他容器，會造成爭奪資源的情況。
-        fargateTaskDefinition.addContainer("xray", ContainerDefinitionOptions.builder()
-                .image(ContainerImage.fromRegistry("public.ecr.aws/xray/aws-xray-daemon:latest"))
-                .containerName("XRayAuditService")
-                .logging(new AwsLogDriver(AwsLogDriverProps.builder()
-                        .logGroup(new LogGroup(this, "XRayLogGroup", LogGroupProps.builder()
-                                .logGroupName("XRayAuditService")
-                                .removalPolicy(RemovalPolicy.DESTROY)
-                                .retention(RetentionDays.ONE_MONTH)
-                                .build()))
-                        .streamPrefix("XRayAuditService")
-                        .build()))
-                .portMappings(Collections.singletonList(PortMapping.builder()
-                        .containerPort(2000)
-                        .protocol(Protocol.UDP)
-                        .build()))
-                .cpu(128)
-                .memoryLimitMiB(128)
+        //OpenTelemetry collector sidecar：接收OTLP traces/metrics，匯出到X-Ray與CloudWatch
+        ContainerDefinition otelCollector = OtelCollectorSidecar.addTo(this, fargateTaskDefinition,
+                auditServiceProps.networkSettings(), "AuditService");
+        //collector可以接收traces後才啟動應用程式，避免啟動期間的traces與metrics遺失
+        appContainer.addContainerDependencies(ContainerDependency.builder()
+                .container(otelCollector)
+                .condition(ContainerDependencyCondition.HEALTHY)
                 .build());
 
         //建立應用程式監聽器
-        ApplicationListener applicationListener = auditServiceProps.applicationLoadBalancer()
+        this.applicationListener = auditServiceProps.applicationLoadBalancer()
                 .addListener("AuditServiceAlbListener", ApplicationListenerProps.builder()
                         .port(9090)
                         .protocol(ApplicationProtocol.HTTP)
@@ -190,9 +300,16 @@ public class AuditServiceStack extends Stack {
                         .serviceName("AuditService")
                         .cluster(auditServiceProps.cluster())
                         .taskDefinition(fargateTaskDefinition)
-                        .desiredCount(2) //欲建立的實例數量
-                        //DO NOT DO THIS IN PROD!!
-                        .assignPublicIp(true) //會這樣設定是因為在VPC中，我們選擇不建立natGateways(擁有自己的IP)
+                        .desiredCount(auditServiceProps.sizing().desiredCount()) //欲建立的實例數量
+                        //沒有NAT時，放在public subnet需要公有IP才能存取AWS API；
+                        //放在private isolated subnet則透過VPC endpoint存取，不需要公有IP。
+                        .assignPublicIp(auditServiceProps.networkSettings().assignPublicIp())
+                        .vpcSubnets(auditServiceProps.networkSettings().subnets())
+                        //JVM啟動與暖機期間不因為健康檢查失敗而被替換
+                        .healthCheckGracePeriod(auditServiceProps.trafficSettings().healthCheckGracePeriod())
+                        .minHealthyPercent(auditServiceProps.rolloutSettings().minHealthyPercent())
+                        .maxHealthyPercent(auditServiceProps.rolloutSettings().maxHealthyPercent())
+                        .circuitBreaker(auditServiceProps.rolloutSettings().circuitBreaker()) //新版本無法穩定運行時自動回滾
                         .build());
 
         /*
@@ -200,62 +317,432 @@ public class AuditServiceStack extends Stack {
         所以要設定可以去ECR取得image
          */
         auditServiceProps.repository().grantPull(Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
+        auditServiceProps.networkSettings().grantPublicImagePull(this,
+                Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
 
         //接受任何來自IP位址的任何內容，且在服務中設定TCP 9090 port來接收通訊傳入的請求。
         fargateService.getConnections().getSecurityGroups().get(0).addIngressRule(Peer.ipv4(auditServiceProps
                 .vpc().getVpcCidrBlock()), Port.tcp(9090));
 
         //建立監聽器目標:，確認健康狀態。
-        applicationListener.addTargets("AuditServiceAlbTarget",
+        ApplicationTargetGroup applicationTargetGroup = this.applicationListener.addTargets("AuditServiceAlbTarget",
                 AddApplicationTargetsProps.builder()
                         .targetGroupName("auditServiceAlb")
                         .port(9090)
                         .protocol(ApplicationProtocol.HTTP)
                         .targets(Collections.singletonList(fargateService))
-                        .deregistrationDelay(Duration.seconds(30))
+                        .deregistrationDelay(auditServiceProps.trafficSettings().deregistrationDelay())
+                        .slowStart(auditServiceProps.trafficSettings().slowStart()) //新任務的流量逐步增加，讓JIT先暖機
+                        .loadBalancingAlgorithmType(auditServiceProps.trafficSettings().loadBalancingAlgorithm())
                         .healthCheck(HealthCheck.builder()
                                 .enabled(true)
-                                .interval(Duration.seconds(30)) //每30秒發送一次健康檢查請求，確認實例健康狀態。
-                                .timeout(Duration.seconds(10)) //超過10秒沒回應為逾時。
+                                .interval(Duration.seconds(10)) //每10秒發送一次健康檢查請求，確認實例健康狀態。
+                                .timeout(Duration.seconds(5)) //超過5秒沒回應為逾時。
+                                .healthyThresholdCount(2) //連續2次成功就開始接收流量
+                                .unhealthyThresholdCount(3)
                                 .path("/actuator/health") //SpringBoot中我們有引入此套件，負責確認應用程式健康狀態。
                                 .port("9090")
                                 .build())
                         .build()
         );
 
-        //建立NetworkListener
-        NetworkListener networkListener = auditServiceProps.networkLoadBalancer()
-                .addListener("AuditServiceNlbListener", BaseNetworkListenerProps.builder()
-                        .port(9090)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .build());
+        //建立NetworkListener，HTTP API模式直接經由ALB，沒有NLB
+        NetworkTargetGroup networkTargetGroup = null;
+        if (auditServiceProps.networkLoadBalancer() != null) {
+            NetworkListener networkListener = auditServiceProps.networkLoadBalancer()
+                    .addListener("AuditServiceNlbListener", BaseNetworkListenerProps.builder()
+                            .port(9090)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .build());
 
-        networkListener.addTargets("AuditServiceNlbTarget",
-                AddNetworkTargetsProps.builder()
-                        .port(9090)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .targetGroupName("auditServiceNlb")
-                        .targets(Collections.singletonList(
-                                fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
-                                        .containerName("auditService")
-                                        .containerPort(9090)
-                                        .protocol(Protocol.TCP)
-                                        .build())))
-                        .build());
+            networkTargetGroup = networkListener.addTargets("AuditServiceNlbTarget",
+                    AddNetworkTargetsProps.builder()
+                            .port(9090)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .targetGroupName("auditServiceNlb")
+                            .deregistrationDelay(auditServiceProps.trafficSettings().deregistrationDelay())
+                            //NLB預設每30秒檢查、連續5次成功才健康，新任務要等2分半以上才會接到流量
+                            .healthCheck(HealthCheck.builder()
+                                    .interval(Duration.seconds(10))
+                                    .healthyThresholdCount(2)
+                                    .unhealthyThresholdCount(2)
+                                    .build())
+                            .targets(Collections.singletonList(
+                                    fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
+                                            .containerName("auditService")
+                                            .containerPort(9090)
+                                            .protocol(Protocol.TCP)
+                                            .build())))
+                            .build());
+            auditServiceProps.trafficSettings().applyTo(networkTargetGroup);
+        }
+
+        this.monitoring = new ServiceMonitoring("AuditService", fargateService,
+                applicationTargetGroup, networkTargetGroup,
+                List.of(eventsDdb), List.of(productEventsQueue, productFailureEventsQueue), List.of(productEventsDlq));
 
+        ServiceScalingSettings scalingSettings = auditServiceProps.scalingSettings();
         ScalableTaskCount scalableTaskCount = fargateService.autoScaleTaskCount(
                 EnableScalingProps.builder()
-                        .maxCapacity(4)
-                        .minCapacity(2)
+                        .maxCapacity(auditServiceProps.sizing().maxCapacity()) //最大實例數目
+                        .minCapacity(auditServiceProps.sizing().minCapacity()) //最小實例數目
                         .build()
         );
+        //主要依據：每個任務平均分到的ALB請求數，服務大多在等DynamoDB，請求量比CPU更能反映負載。
+        scalableTaskCount.scaleOnRequestCount("AuditServiceRequestCountScaling",
+                RequestCountScalingProps.builder()
+                        .targetGroup(applicationTargetGroup)
+                        .requestsPerTarget(scalingSettings.requestsPerTarget())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180)) //縮小放慢，避免來回震盪
+                        .build());
+        //CPU上限保護
         scalableTaskCount.scaleOnCpuUtilization("AuditServiceAutoScaling",
                 CpuUtilizationScalingProps.builder()
-                        .targetUtilizationPercent(10)
-                        .scaleInCooldown(Duration.seconds(60))
+                        .targetUtilizationPercent(scalingSettings.cpuCeilingPercent())
                         .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180))
+                        .build());
+        //p99回應時間超過門檻就階梯式擴張，只擴張不縮小，縮小交給上面的target tracking。
+        double p99Threshold = scalingSettings.p99ResponseTimeSeconds();
+        scalableTaskCount.scaleOnMetric("AuditServiceLatencyScaling",
+                BasicStepScalingPolicyProps.builder()
+                        .metric(applicationTargetGroup.getMetrics().targetResponseTime(MetricOptions.builder()
+                                .statistic("p99")
+                                .period(Duration.minutes(1))
+                                .build()))
+                        .scalingSteps(Arrays.asList(
+                                ScalingInterval.builder().upper(p99Threshold).change(0).build(),
+                                ScalingInterval.builder().lower(p99Threshold).change(1).build(),
+                                ScalingInterval.builder().lower(p99Threshold * 2).change(3).build()))
+                        .adjustmentType(AdjustmentType.CHANGE_IN_CAPACITY)
+                        .evaluationPeriods(2)
+                        .cooldown(Duration.seconds(60))
+                        .build());
+
+        //佇列積壓擴張：大量匯入商品時CPU不高但佇列會累積，改用「每個任務分到的待處理訊息數」判斷。
+        //使用target tracking而不是只擴張的step scaling：多個target tracking政策要全部都可以縮小時才會縮小，
+        //批次消化期間CPU與請求數很低，也不會被請求數/CPU政策縮小後又因為積壓擴張，來回震盪。
+        //product-events由Lambda消費時，該佇列的積壓與任務數無關，只計算服務自己輪詢的佇列。
+        AuditQueueScalingSettings queueScalingSettings = auditServiceProps.queueScalingSettings();
+        boolean serviceConsumesProductEvents = !auditServiceProps.productEventsConsumerSettings().enabled();
+        Queue messageAgeQueue = serviceConsumesProductEvents ? productEventsQueue : productFailureEventsQueue;
+        List<CfnScalingPolicy.TargetTrackingMetricDataQueryProperty> backlogQueries = new ArrayList<>();
+        if (serviceConsumesProductEvents) {
+            backlogQueries.add(metricQuery("events", "AWS/SQS", "ApproximateNumberOfMessagesVisible",
+                    Map.of("QueueName", productEventsQueue.getQueueName()), "Maximum"));
+        }
+        backlogQueries.add(metricQuery("failures", "AWS/SQS", "ApproximateNumberOfMessagesVisible",
+                Map.of("QueueName", productFailureEventsQueue.getQueueName()), "Maximum"));
+        //Cluster有開啟Container Insights，可以取得目前執行中的任務數
+        backlogQueries.add(metricQuery("tasks", "ECS/ContainerInsights", "RunningTaskCount",
+                Map.of("ClusterName", auditServiceProps.cluster().getClusterName(),
+                        "ServiceName", fargateService.getServiceName()), "Average"));
+        backlogQueries.add(CfnScalingPolicy.TargetTrackingMetricDataQueryProperty.builder()
+                .id("backlogPerTask")
+                .expression((serviceConsumesProductEvents ? "(events + failures)" : "failures") +
+                        " / IF(tasks > 0, tasks, 1)")
+                .label("Backlog per task")
+                .returnData(true)
+                .build());
+
+        //L2的scaleToTrackCustomMetric只接受單一metric，metric math需要直接建立CfnScalingPolicy。
+        CfnScalingPolicy backlogScaling = new CfnScalingPolicy(this, "AuditServiceBacklogScaling",
+                CfnScalingPolicyProps.builder()
+                        .policyName("AuditServiceBacklogScaling")
+                        .policyType("TargetTrackingScaling")
+                        .serviceNamespace("ecs")
+                        .scalableDimension("ecs:service:DesiredCount")
+                        .resourceId("service/" + auditServiceProps.cluster().getClusterName() + "/" +
+                                fargateService.getServiceName())
+                        .targetTrackingScalingPolicyConfiguration(
+                                CfnScalingPolicy.TargetTrackingScalingPolicyConfigurationProperty.builder()
+                                        .targetValue(queueScalingSettings.backlogPerTask())
+                                        .customizedMetricSpecification(
+                                                CfnScalingPolicy.CustomizedMetricSpecificationProperty.builder()
+                                                        .metrics(backlogQueries)
+                                                        .build())
+                                        .scaleOutCooldown(60)
+                                        .scaleInCooldown(180) //縮小放慢，與其他target tracking一致
+                                        .build())
+                        .build());
+        //以resourceId指定時需要等scalable target建立完成
+        backlogScaling.getNode().addDependency(scalableTaskCount);
+
+        //最舊的訊息等太久，代表消化速度跟不上，直接擴張；擴張後的任務由上面的target tracking在積壓消化後縮小。
+        double maxMessageAgeSeconds = queueScalingSettings.maxMessageAge().toSeconds().doubleValue();
+        scalableTaskCount.scaleOnMetric("AuditServiceMessageAgeScaling",
+                BasicStepScalingPolicyProps.builder()
+                        .metric(messageAgeQueue.metricApproximateAgeOfOldestMessage(MetricOptions.builder()
+                                .statistic("Maximum")
+                                .period(Duration.minutes(1))
+                                .build()))
+                        .scalingSteps(Arrays.asList(
+                                ScalingInterval.builder().upper(maxMessageAgeSeconds).change(0).build(),
+                                ScalingInterval.builder().lower(maxMessageAgeSeconds).change(2).build(),
+                                ScalingInterval.builder().lower(maxMessageAgeSeconds * 5).change(5).build()))
+                        .adjustmentType(AdjustmentType.CHANGE_IN_CAPACITY)
+                        .cooldown(Duration.seconds(60))
                         .build());
     }
+
+    private static CfnScalingPolicy.TargetTrackingMetricDataQueryProperty metricQuery(
+            String id, String namespace, String metricName, Map<String, String> dimensions, String statistic) {
+        List<CfnScalingPolicy.TargetTrackingMetricDimensionProperty> metricDimensions = new ArrayList<>();
+        dimensions.forEach((name, value) -> metricDimensions.add(
+                CfnScalingPolicy.TargetTrackingMetricDimensionProperty.builder()
+                        .name(name)
+                        .value(value)
+                        .build()));
+        return CfnScalingPolicy.TargetTrackingMetricDataQueryProperty.builder()
+                .id(id)
+                .metricStat(CfnScalingPolicy.TargetTrackingMetricStatProperty.builder()
+                        .metric(CfnScalingPolicy.TargetTrackingMetricProperty.builder()
+                                .namespace(namespace)
+                                .metricName(metricName)
+                                .dimensions(metricDimensions)
+                                .build())
+                        .stat(statistic)
+                        .build())
+                .returnData(false)
+                .build();
+    }
+
+    public ApplicationListener getApplicationListener() {
+        return applicationListener;
+    }
+
+    public ServiceMonitoring getMonitoring() {
+        return monitoring;
+    }
+
+    /**
+     * Lambda批次消費product-events，處理量跟著佇列深度擴張，不受Fargate任務數限制。
+     * 佇列的DLQ設定(maxReceiveCount(3))不變，失敗的訊息同樣會進入product-events-dlq。
+     */
+    private void createProductEventsConsumer(Table eventsDdb, Queue productEventsQueue, int shardCount,
+                                             ProductEventsConsumerSettings consumerSettings) {
+        Map<String, String> consumerEnv = new HashMap<>();
+        consumerEnv.put("EVENTS_DDB", eventsDdb.getTableName());
+        consumerEnv.putAll(EventsTableKeys.environment("EVENTS_DDB_", shardCount));
+        consumerEnv.put("EVENTS_TTL_SECONDS", "3600");
+
+        Function productEventsConsumer = new Function(this, "ProductEventsConsumer", FunctionProps.builder()
+                .functionName("product-events-consumer")
+                .runtime(Runtime.PYTHON_3_12)
+                .handler("index.handler")
+                .code(Code.fromAsset(PRODUCT_EVENTS_CONSUMER_CODE))
+                .memorySize(256)
+                .timeout(PRODUCT_EVENTS_CONSUMER_TIMEOUT)
+                .environment(consumerEnv)
+                .logGroup(new LogGroup(this, "ProductEventsConsumerLogGroup", LogGroupProps.builder()
+                        .logGroupName("ProductEventsConsumer")
+                        .removalPolicy(RemovalPolicy.DESTROY)
+                        .retention(RetentionDays.ONE_MONTH)
+                        .build()))
+                .build());
+        eventsDdb.grantWriteData(productEventsConsumer);
+
+        productEventsConsumer.addEventSource(new SqsEventSource(productEventsQueue, SqsEventSourceProps.builder()
+                .batchSize(consumerSettings.batchSize())
+                .maxBatchingWindow(consumerSettings.maxBatchingWindow())
+                .maxConcurrency(consumerSettings.maxConcurrency()) //同時執行的Lambda上限，保護events table
+                .reportBatchItemFailures(true) //只重試失敗的訊息
+                .build()));
+    }
+
+    /**
+     * 冷資料封存：events table TTL到期刪除的資料 → DynamoDB Stream → Lambda → Firehose → S3 (Parquet，依日期分區)，
+     * 並建立Glue table，可以用Athena查詢。hot table可以維持較短的TTL，查詢保持快速。
+     */
+    private void createEventsArchive(Table eventsDdb) {
+        //封存資料不應該跟著Stack被刪除
+        Bucket archiveBucket = new Bucket(this, "EventsArchiveBucket", BucketProps.builder()
+                .encryption(BucketEncryption.S3_MANAGED)
+                .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+                .enforceSsl(true)
+                .removalPolicy(RemovalPolicy.RETAIN)
+                .lifecycleRules(Collections.singletonList(LifecycleRule.builder()
+                        .transitions(Collections.singletonList(Transition.builder()
+                                .storageClass(StorageClass.INFREQUENT_ACCESS)
+                                .transitionAfter(Duration.days(30))
+                                .build()))
+                        .build()))
+                .build());
+
+        //封存的欄位：Glue schema與Lambda送出的JSON共用同一份清單，名稱為events table欄位的小寫
+        List<CfnTable.ColumnProperty> archiveColumns = Arrays.asList(
+                glueColumn("pk", "string"),
+                glueColumn("sk", "string"),
+                glueColumn("shard", "int"),
+                glueColumn("eventtype", "string"),
+                glueColumn("createdat", "bigint"),
+                glueColumn("messageid", "string"),
+                glueColumn("info", "string"),
+                glueColumn("ttl", "bigint"));
+
+        String archiveLocation = "s3://" + archiveBucket.getBucketName() + "/events/";
+        CfnDatabase auditDatabase = new CfnDatabase(this, "AuditArchiveDatabase", CfnDatabaseProps.builder()
+                .catalogId(this.getAccount())
+                .databaseInput(CfnDatabase.DatabaseInputProperty.builder()
+                        .name("ecommerce_audit")
+                        .build())
+                .build());
+
+        //partition projection：不需要crawler或MSCK REPAIR，Athena依照路徑直接推算分區。
+        Map<String, String> tableParameters = new HashMap<>();
+        tableParameters.put("classification", "parquet");
+        tableParameters.put("projection.enabled", "true");
+        tableParameters.put("projection.year.type", "integer");
+        tableParameters.put("projection.year.range", "2024,2100");
+        tableParameters.put("projection.month.type", "integer");
+        tableParameters.put("projection.month.range", "1,12");
+        tableParameters.put("projection.month.digits", "2");
+        tableParameters.put("projection.day.type", "integer");
+        tableParameters.put("projection.day.range", "1,31");
+        tableParameters.put("projection.day.digits", "2");
+        tableParameters.put("storage.location.template", archiveLocation + "year=${year}/month=${month}/day=${day}/");
+
+        CfnTable archiveTable = new CfnTable(this, "EventsArchiveTable", CfnTableProps.builder()
+                .catalogId(this.getAccount())
+                .databaseName("ecommerce_audit")
+                .tableInput(CfnTable.TableInputProperty.builder()
+                        .name("events_archive")
+                        .tableType("EXTERNAL_TABLE")
+                        .parameters(tableParameters)
+                        .partitionKeys(Arrays.asList(
+                                glueColumn("year", "string"),
+                                glueColumn("month", "string"),
+                                glueColumn("day", "string")))
+                        .storageDescriptor(CfnTable.StorageDescriptorProperty.builder()
+                                .location(archiveLocation)
+                                .inputFormat("org.apache.hadoop.hive.ql.io.parquet.MapredParquetInputFormat")
+                                .outputFormat("org.apache.hadoop.hive.ql.io.parquet.MapredParquetOutputFormat")
+                                .serdeInfo(CfnTable.SerdeInfoProperty.builder()
+                                        .serializationLibrary(
+                                                "org.apache.hadoop.hive.ql.io.parquet.serde.ParquetHiveSerDe")
+                                        .build())
+                                .columns(archiveColumns)
+                                .build())
+                        .build())
+                .build());
+        archiveTable.addDependency(auditDatabase);
+
+        Role firehoseRole = new Role(this, "EventsArchiveFirehoseRole", RoleProps.builder()
+                .assumedBy(new ServicePrincipal("firehose.amazonaws.com"))
+                .build());
+        archiveBucket.grantReadWrite(firehoseRole);
+        firehoseRole.addToPrincipalPolicy(PolicyStatement.Builder.create()
+                .actions(Arrays.asList("glue:GetTable", "glue:GetTableVersion", "glue:GetTableVersions"))
+                .resources(Arrays.asList(
+                        this.formatArn(ArnComponents.builder()
+                                .service("glue").resource("catalog").build()),
+                        this.formatArn(ArnComponents.builder()
+                                .service("glue").resource("database").resourceName("ecommerce_audit").build()),
+                        this.formatArn(ArnComponents.builder()
+                                .service("glue").resource("table").resourceName("ecommerce_audit/events_archive")
+                                .build())))
+                .build());
+
+        //Firehose依照Glue table的schema，把JSON轉成Parquet(SNAPPY壓縮)
+        CfnDeliveryStream.DataFormatConversionConfigurationProperty parquetConversion =
+                CfnDeliveryStream.DataFormatConversionConfigurationProperty.builder()
+                        .enabled(true)
+                        .inputFormatConfiguration(CfnDeliveryStream.InputFormatConfigurationProperty.builder()
+                                .deserializer(CfnDeliveryStream.DeserializerProperty.builder()
+                                        .openXJsonSerDe(CfnDeliveryStream.OpenXJsonSerDeProperty.builder().build())
+                                        .build())
+                                .build())
+                        .outputFormatConfiguration(CfnDeliveryStream.OutputFormatConfigurationProperty.builder()
+                                .serializer(CfnDeliveryStream.SerializerProperty.builder()
+                                        .parquetSerDe(CfnDeliveryStream.ParquetSerDeProperty.builder()
+                                                .compression("SNAPPY")
+                                                .build())
+                                        .build())
+                                .build())
+                        .schemaConfiguration(CfnDeliveryStream.SchemaConfigurationProperty.builder()
+                                .catalogId(this.getAccount())
+                                .databaseName("ecommerce_audit")
+                                .tableName("events_archive")
+                                .region(this.getRegion())
+                                .roleArn(firehoseRole.getRoleArn())
+                                .versionId("LATEST")
+                                .build())
+                        .build();
+
+        //分區依照送達Firehose的時間，也就是TTL到期被刪除的日期
+        CfnDeliveryStream deliveryStream = new CfnDeliveryStream(this, "EventsArchiveDeliveryStream",
+                CfnDeliveryStreamProps.builder()
+                        .deliveryStreamName("events-archive")
+                        .deliveryStreamType("DirectPut")
+                        .extendedS3DestinationConfiguration(
+                                CfnDeliveryStream.ExtendedS3DestinationConfigurationProperty.builder()
+                                        .bucketArn(archiveBucket.getBucketArn())
+                                        .roleArn(firehoseRole.getRoleArn())
+                                        .prefix("events/year=!{timestamp:yyyy}/month=!{timestamp:MM}/day=!{timestamp:dd}/")
+                                        .errorOutputPrefix("errors/!{firehose:error-output-type}/" +
+                                                "year=!{timestamp:yyyy}/month=!{timestamp:MM}/day=!{timestamp:dd}/")
+                                        //Parquet轉換需要至少64MB的buffer，檔案越大查詢越有效率
+                                        .bufferingHints(CfnDeliveryStream.BufferingHintsProperty.builder()
+                                                .sizeInMBs(128)
+                                                .intervalInSeconds(900)
+                                                .build())
+                                        .dataFormatConversionConfiguration(parquetConversion)
+                                        .build())
+                        .build());
+        deliveryStream.addDependency(archiveTable);
+        //Firehose建立時就會檢查role權限，需要等policy建立完成
+        deliveryStream.getNode().addDependency(firehoseRole);
+
+        Map<String, String> archiveEnv = new HashMap<>();
+        archiveEnv.put("DELIVERY_STREAM_NAME", deliveryStream.getRef());
+        archiveEnv.put("ARCHIVE_COLUMNS", archiveColumns.stream()
+                .map(CfnTable.ColumnProperty::getName)
+                .collect(Collectors.joining(",")));
+
+        Function eventsArchiveFunction = new Function(this, "EventsArchive", FunctionProps.builder()
+                .functionName("events-archive")
+                .runtime(Runtime.PYTHON_3_12)
+                .handler("index.handler")
+                .code(Code.fromAsset(EVENTS_ARCHIVE_CODE))
+                .memorySize(256)
+                .timeout(Duration.seconds(60))
+                .environment(archiveEnv)
+                .logGroup(new LogGroup(this, "EventsArchiveLogGroup", LogGroupProps.builder()
+                        .logGroupName("EventsArchive")
+                        .removalPolicy(RemovalPolicy.DESTROY)
+                        .retention(RetentionDays.ONE_MONTH)
+                        .build()))
+                .build());
+        eventsArchiveFunction.addToRolePolicy(PolicyStatement.Builder.create()
+                .actions(Collections.singletonList("firehose:PutRecordBatch"))
+                .resources(Collections.singletonList(deliveryStream.getAttrArn()))
+                .build());
+
+        //只處理TTL到期的刪除：由DynamoDB服務本身發出的REMOVE事件，一般API刪除不封存。
+        Map<String, Object> ttlDeleteIdentity = new HashMap<>();
+        ttlDeleteIdentity.put("type", FilterRule.isEqual("Service"));
+        ttlDeleteIdentity.put("principalId", FilterRule.isEqual("dynamodb.amazonaws.com"));
+        Map<String, Object> ttlDeleteFilter = new HashMap<>();
+        ttlDeleteFilter.put("eventName", FilterRule.isEqual("REMOVE"));
+        ttlDeleteFilter.put("userIdentity", ttlDeleteIdentity);
+
+        eventsArchiveFunction.addEventSource(new DynamoEventSource(eventsDdb, DynamoEventSourceProps.builder()
+                .startingPosition(StartingPosition.TRIM_HORIZON)
+                .batchSize(500)
+                .maxBatchingWindow(Duration.seconds(60))
+                .bisectBatchOnError(true)
+                .retryAttempts(5)
+                .filters(Collections.singletonList(FilterCriteria.filter(ttlDeleteFilter)))
+                .build()));
+    }
+
+    private static CfnTable.ColumnProperty glueColumn(String name, String type) {
+        return CfnTable.ColumnProperty.builder()
+                .name(name)
+                .type(type)
+                .build();
+    }
 }
 
 record AuditServiceProps(
@@ -264,6 +751,46 @@ record AuditServiceProps(
         NetworkLoadBalancer networkLoadBalancer,
         ApplicationLoadBalancer applicationLoadBalancer,
         Repository repository,
-        Topic productEventsTopic
+        CpuArchitecture cpuArchitecture,
+        TaskNetworkSettings networkSettings,
+        ServiceSizing sizing,
+        JvmSettings jvmSettings,
+        ProfilingSettings profilingSettings,
+        ServiceScalingSettings scalingSettings,
+        TargetTrafficSettings trafficSettings,
+        RolloutSettings rolloutSettings,
+        LogRoutingSettings logRoutingSettings,
+        Topic productEventsTopic,
+        CacheEndpoint cacheEndpoint,
+        AuditQueueScalingSettings queueScalingSettings,
+        ProductEventsConsumerSettings productEventsConsumerSettings,
+        int eventsShardCount,
+        boolean eventTypeIndexEnabled,
+        boolean eventsArchiveEnabled
+) {
+}
+
+/**
+ * @param backlogPerTask 每個任務可接受的待處理訊息數(處理速度 x 可接受的延遲)
+ * @param maxMessageAge  最舊訊息可接受的等待時間
+ */
+record AuditQueueScalingSettings(
+        int backlogPerTask,
+        Duration maxMessageAge
 ) {
-}
\ No newline at end of file
+}
+
+/**
+ * product-events的Lambda批次消費者設定，enabled為false時由AuditService輪詢佇列。
+ *
+ * @param batchSize         每次呼叫最多的訊息數
+ * @param maxBatchingWindow 湊滿一批前最多等待的時間
+ * @param maxConcurrency    同時執行的Lambda上限(2~1000)
+ */
+record ProductEventsConsumerSettings(
+        boolean enabled,
+        int batchSize,
+        Duration maxBatchingWindow,
+        int maxConcurrency
+) {
+}
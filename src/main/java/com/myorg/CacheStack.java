@@ -0,0 +1,89 @@
+/**
+ * Cache Stack 共用快取層Stack，使用ElastiCache (Valkey，與Redis協定相容)。
+ * ProductsService與AuditService都透過環境變數取得此快取的連線位置，實作read-through快取。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.ec2.ISubnet;
+import software.amazon.awscdk.services.ec2.Peer;
+import software.amazon.awscdk.services.ec2.Port;
+import software.amazon.awscdk.services.ec2.SecurityGroup;
+import software.amazon.awscdk.services.ec2.SecurityGroupProps;
+import software.amazon.awscdk.services.ec2.Vpc;
+import software.amazon.awscdk.services.elasticache.CfnReplicationGroup;
+import software.amazon.awscdk.services.elasticache.CfnReplicationGroupProps;
+import software.amazon.awscdk.services.elasticache.CfnSubnetGroup;
+import software.amazon.awscdk.services.elasticache.CfnSubnetGroupProps;
+import software.constructs.Construct;
+
+import java.util.Collections;
+
+public class CacheStack extends Stack {
+    private final CacheEndpoint cacheEndpoint;
+
+    public CacheStack(final Construct scope, final String id, final StackProps props, CacheStackProps cacheStackProps) {
+        super(scope, id, props);
+
+        //快取只開放給VPC內部連線，與各服務的ingress規則一致。
+        SecurityGroup securityGroup = new SecurityGroup(this, "CacheSecurityGroup", SecurityGroupProps.builder()
+                .vpc(cacheStackProps.vpc())
+                .description("ECommerce shared cache")
+                .allowAllOutbound(true)
+                .build());
+        securityGroup.addIngressRule(Peer.ipv4(cacheStackProps.vpc().getVpcCidrBlock()), Port.tcp(6379));
+
+        //VPC沒有NAT，快取節點放在private isolated subnet。
+        CfnSubnetGroup subnetGroup = new CfnSubnetGroup(this, "CacheSubnetGroup", CfnSubnetGroupProps.builder()
+                .cacheSubnetGroupName("ecommerce-cache")
+                .description("ECommerce shared cache subnets")
+                .subnetIds(cacheStackProps.vpc().getIsolatedSubnets().stream()
+                        .map(ISubnet::getSubnetId)
+                        .toList())
+                .build());
+
+        CfnReplicationGroup replicationGroup = new CfnReplicationGroup(this, "Cache",
+                CfnReplicationGroupProps.builder()
+                        .replicationGroupId("ecommerce-cache")
+                        .replicationGroupDescription("ECommerce shared read-through cache")
+                        .engine(cacheStackProps.engine())
+                        .engineVersion(cacheStackProps.engineVersion())
+                        .cacheNodeType(cacheStackProps.nodeType())
+                        .numCacheClusters(2) //一個primary一個replica，分別放在兩個AZ
+                        .automaticFailoverEnabled(true)
+                        .multiAzEnabled(true)
+                        .cacheSubnetGroupName(subnetGroup.getRef())
+                        .securityGroupIds(Collections.singletonList(securityGroup.getSecurityGroupId()))
+                        .transitEncryptionEnabled(true)
+                        .atRestEncryptionEnabled(true)
+                        .build());
+
+        this.cacheEndpoint = new CacheEndpoint(
+                replicationGroup.getAttrPrimaryEndPointAddress(),
+                replicationGroup.getAttrPrimaryEndPointPort(),
+                replicationGroup.getAttrReaderEndPointAddress());
+    }
+
+    public CacheEndpoint getCacheEndpoint() {
+        return cacheEndpoint;
+    }
+}
+
+record CacheStackProps(
+        Vpc vpc,
+        String engine,
+        String engineVersion,
+        String nodeType
+) {
+}
+
+/**
+ * 快取連線位置，寫入(含刪除)使用primaryAddress，只讀取的查詢可以使用readerAddress。
+ */
+record CacheEndpoint(
+        String primaryAddress,
+        String port,
+        String readerAddress
+) {
+}
@@ -0,0 +1,68 @@
+/**
+ * 持續效能分析(CodeGuru Profiler)，ProductsService、AuditService、InvoicesService共用，預設關閉。
+ * agent在JVM內定期取樣thread stack並上傳，可以直接在console看到正式環境熱點路徑的flame graph，不需要重新部署或手動attach工具。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.codeguruprofiler.ComputePlatform;
+import software.amazon.awscdk.services.codeguruprofiler.ProfilingGroup;
+import software.amazon.awscdk.services.codeguruprofiler.ProfilingGroupProps;
+import software.amazon.awscdk.services.iam.IRole;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+final class ContinuousProfiling {
+
+    private ContinuousProfiling() {
+    }
+
+    /**
+     * 開啟時建立profiling group並允許task role上傳資料。
+     *
+     * @param serviceName 服務名稱，例如 "ProductsService"
+     * @return agent讀取的環境變數，關閉時為空
+     */
+    static Map<String, String> environment(Stack stack, IRole taskRole, String serviceName,
+                                           ProfilingSettings settings) {
+        if (!settings.enabled()) {
+            return Collections.emptyMap();
+        }
+
+        ProfilingGroup profilingGroup = new ProfilingGroup(stack, "ProfilingGroup", ProfilingGroupProps.builder()
+                .profilingGroupName("ecommerce-" + serviceName.toLowerCase())
+                .computePlatform(ComputePlatform.DEFAULT)
+                .build());
+        profilingGroup.grantPublish(taskRole);
+
+        Map<String, String> environment = new HashMap<>();
+        environment.put("AWS_CODEGURU_PROFILER_ENABLED", "true");
+        environment.put("AWS_CODEGURU_PROFILER_GROUP_NAME", profilingGroup.getProfilingGroupName());
+        environment.put("AWS_CODEGURU_PROFILER_TARGET_REGION", stack.getRegion());
+        environment.put("AWS_CODEGURU_PROFILER_HEAP_SUMMARY_ENABLED", "true");
+        return environment;
+    }
+}
+
+/**
+ * @param enabled   是否開啟CodeGuru Profiler
+ * @param agentPath standalone agent jar在image中的路徑，透過-javaagent啟動；
+ *                  空字串表示應用程式自行引入codeguru-profiler-java-agent並在啟動時讀取環境變數。
+ *                  路徑不存在時JVM無法啟動，請確認image中有此檔案。
+ */
+record ProfilingSettings(
+        boolean enabled,
+        String agentPath
+) {
+    /**
+     * @param jvmOptions JvmSettings組合出的JAVA_TOOL_OPTIONS
+     */
+    String javaToolOptions(String jvmOptions) {
+        if (!enabled || agentPath.isEmpty()) {
+            return jvmOptions;
+        }
+        return jvmOptions + " -javaagent:" + agentPath;
+    }
+}
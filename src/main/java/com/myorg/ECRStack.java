@@ -6,12 +6,18 @@ package com.myorg;
 import software.amazon.awscdk.RemovalPolicy;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.ecr.CfnPullThroughCacheRule;
+import software.amazon.awscdk.services.ecr.CfnPullThroughCacheRuleProps;
 import software.amazon.awscdk.services.ecr.Repository;
 import software.amazon.awscdk.services.ecr.RepositoryProps;
 import software.amazon.awscdk.services.ecr.TagMutability;
 import software.constructs.Construct;
 
 public class ECRStack extends Stack {
+    /**
+     * public.ecr.aws的pull through cache前綴，例如 ecr-public/xray/aws-xray-daemon
+     */
+    static final String PUBLIC_ECR_CACHE_PREFIX = "ecr-public";
 
     private final Repository productsServiceRepository;
     private final Repository auditServiceRepository;
@@ -19,6 +25,10 @@ public class ECRStack extends Stack {
 
     public ECRStack(final Construct scope, final String id, final StackProps props) {
         super(scope, id, props);
+        /*
+        服務可以在Graviton(ARM64)與x86之間切換，image請用 docker buildx build --platform linux/amd64,linux/arm64
+        推送multi-arch manifest，同一個tag即可同時支援兩種架構。
+         */
 
         this.productsServiceRepository = new Repository(this, "ProductsService", RepositoryProps.builder()
                 .repositoryName("productsservice")//這個Name必須跟image的名稱一樣
@@ -40,6 +50,20 @@ public class ECRStack extends Stack {
                 .imageTagMutability(TagMutability.IMMUTABLE)//若tag版本號未修改，但這個image有異動，則上傳時可覆蓋原Image。
                 .emptyOnDelete(true)//如果ECR被刪除，則自動刪除image。
                 .build());
+
+        //private subnet中的任務無法連到public.ecr.aws，sidecar image透過pull through cache從私有ECR拉取。
+        new CfnPullThroughCacheRule(this, "PublicEcrPullThroughCache", CfnPullThroughCacheRuleProps.builder()
+                .ecrRepositoryPrefix(PUBLIC_ECR_CACHE_PREFIX)
+                .upstreamRegistryUrl(TaskNetworkSettings.PUBLIC_ECR_REGISTRY)
+                .build());
+    }
+
+    /**
+     * pull through cache的registry位置，取代public.ecr.aws使用。
+     */
+    public String getPublicEcrCacheRegistry() {
+        return this.getAccount() + ".dkr.ecr." + this.getRegion() + "." + this.getUrlSuffix() + "/" +
+                PUBLIC_ECR_CACHE_PREFIX;
     }
 
     public Repository getProductsServiceRepository() {
@@ -1,21 +1,37 @@
 package com.myorg;
 
 import software.amazon.awscdk.App;
+import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.Environment;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.ecs.CpuArchitecture;
+import software.amazon.awscdk.services.elasticloadbalancingv2.TargetGroupLoadBalancingAlgorithmType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ECommerceEcsCdkApp {
     public static void main(final String[] args) {
         App app = new App();
+        createStacks(app);
+        app.synth();
+    }
+
+    /**
+     * 依照app的context建立所有Stack，測試時可以傳入自訂context的App。
+     */
+    static void createStacks(App app) {
         Environment environment = Environment.builder()
                 .account("339713017818")
                 .region("us-east-1")
                 .build();
 
+        //服務規格設定檔：dev、staging、peak
+        SizingProfile sizingProfile = SizingProfile.of(contextValue(app, "sizingProfile", "staging"));
+
         Map<String, String> infraTags = new HashMap<>();
         infraTags.put("team", "Alpha");
         infraTags.put("cost", "ECommerceInfra");
@@ -36,12 +52,38 @@ public class ECommerceEcsCdkApp {
                 .build(), new ClusterStackProps(vpcStack.getVpc()));
         clusterStack.addDependency(vpcStack);
 
+        //REST：REST API → NLB → ALB；HTTP：HTTP API透過VPC Link v2直接連到ALB
+        ApiType apiType = ApiType.valueOf(contextValue(app, "apiType", "REST"));
+
         NlbStack nlbStack = new NlbStack(app, "Nlb", StackProps.builder()
                 .env(environment)
                 .tags(infraTags)
-                .build(), new NlbStackProps(vpcStack.getVpc()));
+                .build(), new NlbStackProps(vpcStack.getVpc(), apiType));
         nlbStack.addDependency(vpcStack);
 
+        CacheStack cacheStack = new CacheStack(app, "Cache", StackProps.builder()
+                .env(environment)
+                .tags(infraTags)
+                .build(), new CacheStackProps(
+                        vpcStack.getVpc(),
+                        contextValue(app, "cacheEngine", "valkey"),
+                        contextValue(app, "cacheEngineVersion", "7.2"),
+                        contextValue(app, "cacheNodeType", "cache.t4g.small")));
+        cacheStack.addDependency(vpcStack);
+
+        //private subnet + VPC endpoint，公開image改由ECR pull through cache拉取
+        boolean privateTaskSubnets = Boolean.parseBoolean(contextValue(app, "privateTaskSubnets", "true"));
+        TaskNetworkSettings taskNetworkSettings = new TaskNetworkSettings(privateTaskSubnets,
+                privateTaskSubnets ? ecrStack.getPublicEcrCacheRegistry() : TaskNetworkSettings.PUBLIC_ECR_REGISTRY);
+
+        //API Gateway stage快取：ProductsService寫入後需要清除，ApiStack與ProductsService共用同一份設定。
+        //任務在private isolated subnet時連不到公開的API endpoint，不開啟清除，快取只依TTL過期。
+        boolean apiCacheEnabled = Boolean.parseBoolean(contextValue(app, "apiCacheEnabled", "true"));
+        boolean apiUsagePlanEnabled = Boolean.parseBoolean(contextValue(app, "apiUsagePlanEnabled", "false"));
+        ApiCacheFlushSettings apiCacheFlushSettings = new ApiCacheFlushSettings(
+                apiType == ApiType.REST && apiCacheEnabled && taskNetworkSettings.publicEndpointsReachable(),
+                apiUsagePlanEnabled);
+
         Map<String, String> productsServiceTags = new HashMap<>();
         productsServiceTags.put("team", "Alpha");
         productsServiceTags.put("cost", "ProductsServiceInfra");
@@ -56,11 +98,31 @@ public class ECommerceEcsCdkApp {
                         clusterStack.getCluster(),
                         nlbStack.getNetworkLoadBalancer(),
                         nlbStack.getApplicationLoadBalancer(),
-                        ecrStack.getProductsServiceRepository()));
+                        ecrStack.getProductsServiceRepository(),
+                        cpuArchitecture(app, "productsService"),
+                        taskNetworkSettings,
+                        sizingProfile.productsService(),
+                        jvmSettings(app, "productsService"),
+                        profilingSettings(app, "productsService"),
+                        scalingSettings(app, "productsService"),
+                        trafficSettings(app, "productsService"),
+                        rolloutSettings(app, "productsService"),
+                        logRoutingSettings(app, "productsService"),
+                        new ProductsDaxSettings(
+                                Boolean.parseBoolean(contextValue(app, "productsDaxEnabled", "false")),
+                                contextValue(app, "productsDaxNodeType", "dax.t3.small"),
+                                Integer.parseInt(contextValue(app, "productsDaxReplicationFactor", "2"))),
+                        cacheStack.getCacheEndpoint(),
+                        apiCacheFlushSettings,
+                        //預設維持原本的KEYS_ONLY，INCLUDE/ALL需要明確指定
+                        CodeIndexProjection.of(
+                                contextValue(app, "productsCodeIdxProjection", "KEYS_ONLY"),
+                                contextValue(app, "productsCodeIdxAttributes", ""))));
         productsServiceStack.addDependency(vpcStack);
         productsServiceStack.addDependency(clusterStack);
         productsServiceStack.addDependency(nlbStack);
         productsServiceStack.addDependency(ecrStack);
+        productsServiceStack.addDependency(cacheStack);
 
         //AuditService
         Map<String, String> auditServiceTags = new HashMap<>();
@@ -78,13 +140,37 @@ public class ECommerceEcsCdkApp {
                         nlbStack.getNetworkLoadBalancer(),
                         nlbStack.getApplicationLoadBalancer(),
                         ecrStack.getAuditServiceRepository(),
-                        productsServiceStack.getProductsEventsTopic()
+                        cpuArchitecture(app, "auditService"),
+                        taskNetworkSettings,
+                        sizingProfile.auditService(),
+                        jvmSettings(app, "auditService"),
+                        profilingSettings(app, "auditService"),
+                        scalingSettings(app, "auditService"),
+                        trafficSettings(app, "auditService"),
+                        rolloutSettings(app, "auditService"),
+                        logRoutingSettings(app, "auditService"),
+                        productsServiceStack.getProductsEventsTopic(),
+                        cacheStack.getCacheEndpoint(),
+                        new AuditQueueScalingSettings(
+                                Integer.parseInt(contextValue(app, "auditServiceBacklogPerTask", "100")),
+                                Duration.seconds(Integer.parseInt(
+                                        contextValue(app, "auditServiceMaxMessageAgeSeconds", "120")))),
+                        new ProductEventsConsumerSettings(
+                                Boolean.parseBoolean(contextValue(app, "auditLambdaConsumerEnabled", "false")),
+                                Integer.parseInt(contextValue(app, "auditLambdaConsumerBatchSize", "100")),
+                                Duration.seconds(Integer.parseInt(
+                                        contextValue(app, "auditLambdaConsumerBatchingWindowSeconds", "2"))),
+                                Integer.parseInt(contextValue(app, "auditLambdaConsumerMaxConcurrency", "10"))),
+                        Integer.parseInt(contextValue(app, "auditEventsShardCount", "8")),
+                        Boolean.parseBoolean(contextValue(app, "auditEventTypeIndexEnabled", "true")),
+                        Boolean.parseBoolean(contextValue(app, "auditEventsArchiveEnabled", "true"))
                 ));
         auditServiceStack.addDependency(vpcStack);
         auditServiceStack.addDependency(clusterStack);
         auditServiceStack.addDependency(nlbStack);
         auditServiceStack.addDependency(ecrStack);
         auditServiceStack.addDependency(productsServiceStack);
+        auditServiceStack.addDependency(cacheStack);
 
         //InvoicesService
         Map<String, String> invoicesServiceTags = new HashMap<>();
@@ -101,7 +187,18 @@ public class ECommerceEcsCdkApp {
                         clusterStack.getCluster(),
                         nlbStack.getNetworkLoadBalancer(),
                         nlbStack.getApplicationLoadBalancer(),
-                        ecrStack.getInvoicesServiceRepository()
+                        ecrStack.getInvoicesServiceRepository(),
+                        cpuArchitecture(app, "invoicesService"),
+                        taskNetworkSettings,
+                        sizingProfile.invoicesService(),
+                        jvmSettings(app, "invoicesService"),
+                        profilingSettings(app, "invoicesService"),
+                        scalingSettings(app, "invoicesService"),
+                        trafficSettings(app, "invoicesService"),
+                        rolloutSettings(app, "invoicesService"),
+                        logRoutingSettings(app, "invoicesService"),
+                        Integer.parseInt(contextValue(app, "invoicesServiceMemoryTargetPercent", "75")),
+                        scheduledCapacities(app, "invoicesServiceScheduledCapacity")
                 ));
         invoicesServiceStack.addDependency(vpcStack);
         invoicesServiceStack.addDependency(clusterStack);
@@ -113,10 +210,176 @@ public class ECommerceEcsCdkApp {
                 .env(environment)
                 .tags(infraTags)
                 .build(),
-                new ApiStackProps(nlbStack.getNetworkLoadBalancer(),
-                        nlbStack.getVpcLink()));
+                new ApiStackProps(apiType,
+                        nlbStack.getNetworkLoadBalancer(),
+                        nlbStack.getVpcLink(),
+                        nlbStack.getHttpVpcLink(),
+                        productsServiceStack.getApplicationListener(),
+                        auditServiceStack.getApplicationListener(),
+                        productsServiceStack.getTaskRole(),
+                        new ApiCacheSettings(
+                                apiCacheEnabled,
+                                contextValue(app, "apiCacheClusterSize", "0.5"),
+                                Duration.seconds(Integer.parseInt(contextValue(app, "apiCacheProductsTtlSeconds", "60"))),
+                                Duration.seconds(Integer.parseInt(contextValue(app, "apiCacheProductByIdTtlSeconds", "300")))),
+                        apiCacheFlushSettings,
+                        new ApiThrottleSettings(
+                                Integer.parseInt(contextValue(app, "apiReadRateLimit", "500")),
+                                Integer.parseInt(contextValue(app, "apiReadBurstLimit", "1000")),
+                                Integer.parseInt(contextValue(app, "apiWriteRateLimit", "50")),
+                                Integer.parseInt(contextValue(app, "apiWriteBurstLimit", "100")),
+                                Integer.parseInt(contextValue(app, "apiThrottleRetryAfterSeconds", "1")),
+                                apiUsagePlanEnabled,
+                                Integer.parseInt(contextValue(app, "apiPartnerRateLimit", "100")),
+                                Integer.parseInt(contextValue(app, "apiPartnerBurstLimit", "200")),
+                                Integer.parseInt(contextValue(app, "apiPartnerQuotaPerDay", "100000")))));
         apiStack.addDependency(nlbStack);
-        app.synth();
+        apiStack.addDependency(productsServiceStack);
+        apiStack.addDependency(auditServiceStack);
+
+        MonitoringStack monitoringStack = new MonitoringStack(app, "Monitoring", StackProps.builder()
+                .env(environment)
+                .tags(infraTags)
+                .build(),
+                new MonitoringStackProps(apiStack, List.of(
+                        productsServiceStack.getMonitoring(),
+                        auditServiceStack.getMonitoring(),
+                        invoicesServiceStack.getMonitoring()),
+                        routeSlos(app),
+                        Duration.seconds(Integer.parseInt(contextValue(app, "sloQueueMaxAgeSeconds", "300"))),
+                        contextValue(app, "alarmEmail", "")));
+        monitoringStack.addDependency(apiStack);
+        monitoringStack.addDependency(productsServiceStack);
+        monitoringStack.addDependency(auditServiceStack);
+        monitoringStack.addDependency(invoicesServiceStack);
+    }
+
+    /**
+     * 各API route的SLO，讀取與寫入使用不同的延遲門檻，context key為 "sloAvailabilityObjective"、
+     * "sloLatencyObjective"、"sloReadLatencyThresholdMs"、"sloWriteLatencyThresholdMs"。
+     */
+    private static List<RouteSlo> routeSlos(App app) {
+        double availabilityObjective = Double.parseDouble(contextValue(app, "sloAvailabilityObjective", "0.999"));
+        double latencyObjective = Double.parseDouble(contextValue(app, "sloLatencyObjective", "0.99"));
+        int readLatencyMs = Integer.parseInt(contextValue(app, "sloReadLatencyThresholdMs", "300"));
+        int writeLatencyMs = Integer.parseInt(contextValue(app, "sloWriteLatencyThresholdMs", "1000"));
+        return List.of(
+                new RouteSlo("GET", "/products", availabilityObjective, latencyObjective, readLatencyMs),
+                new RouteSlo("GET", "/products/{id}", availabilityObjective, latencyObjective, readLatencyMs),
+                new RouteSlo("GET", "/products/events", availabilityObjective, latencyObjective, readLatencyMs),
+                new RouteSlo("POST", "/products", availabilityObjective, latencyObjective, writeLatencyMs),
+                new RouteSlo("PUT", "/products/{id}", availabilityObjective, latencyObjective, writeLatencyMs),
+                new RouteSlo("DELETE", "/products/{id}", availabilityObjective, latencyObjective, writeLatencyMs));
+    }
+
+    /**
+     * 讀取服務的自動縮放政策設定，context key為 "{service}RequestsPerTarget"、"{service}CpuCeilingPercent"...等。
+     */
+    private static ServiceScalingSettings scalingSettings(App app, String service) {
+        return new ServiceScalingSettings(
+                Integer.parseInt(contextValue(app, service + "RequestsPerTarget", "1000")),
+                Integer.parseInt(contextValue(app, service + "CpuCeilingPercent", "70")),
+                Double.parseDouble(contextValue(app, service + "P99ResponseTimeSeconds", "0.5")));
+    }
+
+    /**
+     * 讀取服務的負載平衡器目標設定，context key為 "{service}SlowStartSeconds"、"{service}LoadBalancingAlgorithm"、
+     * "{service}HealthCheckGracePeriodSeconds"，deregistration delay與NLB屬性所有服務共用。
+     */
+    private static TargetTrafficSettings trafficSettings(App app, String service) {
+        return new TargetTrafficSettings(
+                Integer.parseInt(contextValue(app, service + "SlowStartSeconds", "60")),
+                TargetGroupLoadBalancingAlgorithmType.valueOf(
+                        contextValue(app, service + "LoadBalancingAlgorithm", "ROUND_ROBIN")),
+                Integer.parseInt(contextValue(app, service + "HealthCheckGracePeriodSeconds", "60")),
+                Integer.parseInt(contextValue(app, "targetDeregistrationDelaySeconds", "30")),
+                Boolean.parseBoolean(contextValue(app, "nlbConnectionTermination", "true")),
+                Boolean.parseBoolean(contextValue(app, "nlbCrossZoneEnabled", "true")));
+    }
+
+    /**
+     * 讀取服務的部署設定，context key為 "{service}MinHealthyPercent"、"{service}MaxHealthyPercent"，
+     * 容器健康檢查所有服務共用，預設關閉，確認image中有curl後再開啟。
+     */
+    private static RolloutSettings rolloutSettings(App app, String service) {
+        return new RolloutSettings(
+                Integer.parseInt(contextValue(app, service + "MinHealthyPercent", "100")),
+                Integer.parseInt(contextValue(app, service + "MaxHealthyPercent", "200")),
+                Boolean.parseBoolean(contextValue(app, "appContainerHealthCheckEnabled", "false")));
+    }
+
+    /**
+     * 讀取服務的CodeGuru Profiler設定，context key為 "{service}ProfilingEnabled"、"{service}ProfilerAgentPath"。
+     */
+    private static ProfilingSettings profilingSettings(App app, String service) {
+        return new ProfilingSettings(
+                Boolean.parseBoolean(contextValue(app, service + "ProfilingEnabled", "false")),
+                contextValue(app, service + "ProfilerAgentPath", ""));
+    }
+
+    /**
+     * 讀取服務的log設定，context key為 "{service}FireLensEnabled"，buffer大小所有服務共用。
+     */
+    private static LogRoutingSettings logRoutingSettings(App app, String service) {
+        return new LogRoutingSettings(
+                Boolean.parseBoolean(contextValue(app, service + "FireLensEnabled", "false")),
+                Integer.parseInt(contextValue(app, "logMaxBufferSizeMiB", "25")),
+                Integer.parseInt(contextValue(app, "logFireLensBufferLimit", "10000")));
+    }
+
+    /**
+     * 讀取服務的JVM參數，context key為 "{service}JvmGc"、"{service}JvmMaxMetaspaceMiB"、"{service}JvmCdsArchive"。
+     */
+    private static JvmSettings jvmSettings(App app, String service) {
+        return new JvmSettings(
+                contextValue(app, service + "JvmGc", "G1"),
+                Integer.parseInt(contextValue(app, service + "JvmMaxMetaspaceMiB", "192")),
+                contextValue(app, service + "JvmCdsArchive", ""));
+    }
+
+    /**
+     * 讀取服務的CPU架構，context key為 "{service}CpuArchitecture"，值為 ARM64 或 X86_64，預設X86_64。
+     */
+    private static CpuArchitecture cpuArchitecture(App app, String service) {
+        String cpuArchitecture = contextValue(app, service + "CpuArchitecture", "X86_64");
+        return "ARM64".equalsIgnoreCase(cpuArchitecture) ? CpuArchitecture.ARM64 : CpuArchitecture.X86_64;
+    }
+
+    /**
+     * 讀取排程擴張設定，context內容為陣列，例如：
+     * [{"name": "BillingRun", "schedule": "cron(30 23 L * ? *)", "minCapacity": 6, "maxCapacity": 20}]
+     * 省略minCapacity/maxCapacity時恢復SizingProfile的數值。
+     */
+    private static List<ScheduledCapacity> scheduledCapacities(App app, String key) {
+        List<ScheduledCapacity> scheduledCapacities = new ArrayList<>();
+        Object value = app.getNode().tryGetContext(key);
+        if (!(value instanceof List<?> windows)) {
+            return scheduledCapacities;
+        }
+        for (Object window : windows) {
+            Map<?, ?> windowProps = (Map<?, ?>) window;
+            scheduledCapacities.add(new ScheduledCapacity(
+                    String.valueOf(windowProps.get("name")),
+                    String.valueOf(windowProps.get("schedule")),
+                    capacity(windowProps.get("minCapacity")),
+                    capacity(windowProps.get("maxCapacity"))));
+        }
+        return scheduledCapacities;
+    }
+
+    /**
+     * 未設定時為null，交給ScheduledCapacity使用SizingProfile的數值。
+     */
+    private static Integer capacity(Object value) {
+        return value == null ? null : ((Number) value).intValue();
+    }
+
+    /**
+     * 讀取CDK context(cdk.json 或 cdk deploy -c key=value)，未設定時使用預設值。
+     */
+    private static String contextValue(App app, String key, String defaultValue) {
+        Object value = app.getNode().tryGetContext(key);
+        return value == null ? defaultValue : String.valueOf(value);
     }
 }
 
@@ -0,0 +1,42 @@
+/**
+ * events table的key格式，AuditService與product-events consumer Lambda共用。
+ * 兩邊都從環境變數讀取格式({name}為欄位值)，改變key格式只需要改這裡，不會出現寫入與查詢格式不一致。
+ */
+package com.myorg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class EventsTableKeys {
+    /**
+     * base table partition key，shard = crc32(messageId) % shardCount。
+     */
+    static final String PARTITION_KEY_FORMAT = "#product_{code}#{shard}";
+    /**
+     * 同一個商品、同一種事件在同一毫秒可能有多筆，加上messageId讓每個事件有自己的key，不會互相覆蓋；
+     * createdAt為13位數毫秒，依sk做時間區間查詢的排序不受影響。
+     */
+    static final String SORT_KEY_FORMAT = "{eventType}#{createdAt}#{messageId}";
+    /**
+     * eventTypeIdx的partition key，與base table使用同一個shard。
+     */
+    static final String EVENT_TYPE_SHARD_FORMAT = "{eventType}#{shard}";
+    static final String EVENT_TYPE_SHARD_ATTRIBUTE = "eventTypeShard";
+    static final String CREATED_AT_ATTRIBUTE = "createdAt";
+
+    private EventsTableKeys() {
+    }
+
+    /**
+     * @param prefix 環境變數前綴，例如服務使用 "AWS_EVENTS_DDB_"、Lambda使用 "EVENTS_DDB_"
+     */
+    static Map<String, String> environment(String prefix, int shardCount) {
+        Map<String, String> environment = new HashMap<>();
+        environment.put(prefix + "SHARD_COUNT", String.valueOf(shardCount));
+        environment.put(prefix + "PK_FORMAT", PARTITION_KEY_FORMAT);
+        environment.put(prefix + "SK_FORMAT", SORT_KEY_FORMAT);
+        environment.put(prefix + "EVENT_TYPE_SHARD_FORMAT", EVENT_TYPE_SHARD_FORMAT);
+        environment.put(prefix + "EVENT_TYPE_SHARD_ATTRIBUTE", EVENT_TYPE_SHARD_ATTRIBUTE);
+        return environment;
+    }
+}
@@ -1,10 +1,11 @@
 package com.myorg;
 
 import software.amazon.awscdk.Duration;
-import software.amazon.awscdk.RemovalPolicy;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
 import software.amazon.awscdk.services.applicationautoscaling.EnableScalingProps;
+import software.amazon.awscdk.services.applicationautoscaling.Schedule;
+import software.amazon.awscdk.services.applicationautoscaling.ScalingSchedule;
 import software.amazon.awscdk.services.ec2.Peer;
 import software.amazon.awscdk.services.ec2.Port;
 import software.amazon.awscdk.services.ec2.Vpc;
@@ -13,18 +14,17 @@ import software.amazon.awscdk.services.ecs.*;
 import software.amazon.awscdk.services.ecs.Protocol;
 import software.amazon.awscdk.services.elasticloadbalancingv2.*;
 import software.amazon.awscdk.services.elasticloadbalancingv2.HealthCheck;
-import software.amazon.awscdk.services.iam.ManagedPolicy;
-import software.amazon.awscdk.services.logs.LogGroup;
-import software.amazon.awscdk.services.logs.LogGroupProps;
-import software.amazon.awscdk.services.logs.RetentionDays;
 import software.constructs.Construct;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 public class InvoicesServiceStack extends Stack {
+    private final ServiceMonitoring monitoring;
+
     public InvoicesServiceStack(final Construct scope, final String id,
                                 final StackProps props, InvoicesServiceProps invoicesServiceProps) {
         super(scope, id, props);
@@ -32,63 +32,59 @@ public class InvoicesServiceStack extends Stack {
         FargateTaskDefinition fargateTaskDefinition = new FargateTaskDefinition(this, "TaskDefinition",
                 FargateTaskDefinitionProps.builder()
                         .family("invoices-service")
-                        .cpu(512)
-                        .memoryLimitMiB(1024)
+                        .cpu(invoicesServiceProps.sizing().taskCpu())
+                        .memoryLimitMiB(invoicesServiceProps.sizing().taskMemoryMiB())
+                        //Graviton(ARM64)或x86，image需要有對應架構(multi-arch manifest)。
+                        .runtimePlatform(RuntimePlatform.builder()
+                                .cpuArchitecture(invoicesServiceProps.cpuArchitecture())
+                                .operatingSystemFamily(OperatingSystemFamily.LINUX)
+                                .build())
                         .build());
-        fargateTaskDefinition.getTaskRole().addManagedPolicy(
-                ManagedPolicy.fromAwsManagedPolicyName("AWSXrayWriteOnlyAccess"));
-
-        AwsLogDriver awsLogDriver = new AwsLogDriver(AwsLogDriverProps.builder()
-                .logGroup(new LogGroup(this, "LogGroup", LogGroupProps.builder() //LogGroup可以理解為資料夾
-                        .logGroupName("InvoicesService")
-                        .removalPolicy(RemovalPolicy.DESTROY) //移除方案，如果刪除這個Stack，那此資源也會跟著被刪除。
-                        .retention(RetentionDays.ONE_MONTH) //保留日誌的時間長度
-                        .build()))
-                .streamPrefix("InvoicesService")//文件前綴名稱
-                .build());
+
+        //應用程式的log：預設為awslogs non-blocking，開啟FireLens時由Fluent Bit分流
+        LogDriver logDriver = ServiceLogging.appLogDriver(this, fargateTaskDefinition,
+                invoicesServiceProps.networkSettings(), invoicesServiceProps.logRoutingSettings(), "InvoicesService");
 
         //傳遞到應用程式中的環境變數
         Map<String, String> envVariables = new HashMap<>();
         envVariables.put("Server_PORT", "9095");
         envVariables.put("AWS_REGION", this.getRegion());
-        envVariables.put("AWS_XRAY_DAEMON_ADDRESS", "0.0.0.0:2000");
-        envVariables.put("AWS_XRAY_CONTEXT_MISSING", "IGNORE_ERROR");
+        envVariables.putAll(OtelCollectorSidecar.environment("invoicesService"));
+        //X-Ray取樣規則：沒有需要特別處理的route，只有服務的預設規則。
+        List<String> samplingRules = TracingSampling.addRules(this, "invoicesService", List.of(),
+                SamplingRoute.fallback("Default", 0.05, 1));
+        envVariables.putAll(TracingSampling.environment(samplingRules));
         envVariables.put("AWS_XRAY_TRACING_NAME", "invoicesService");
         envVariables.put("LOGGING_LEVEL_ROOT", "INFO");
+        envVariables.put("JAVA_TOOL_OPTIONS", invoicesServiceProps.profilingSettings().javaToolOptions(
+                invoicesServiceProps.jvmSettings().javaToolOptions(invoicesServiceProps.sizing().jvmHeapOptions())));
+        envVariables.putAll(ContinuousProfiling.environment(this, fargateTaskDefinition.getTaskRole(),
+                "InvoicesService", invoicesServiceProps.profilingSettings()));
 
-        fargateTaskDefinition.addContainer("InvoicesServiceContainer",
+        ContainerDefinition appContainer = fargateTaskDefinition.addContainer("InvoicesServiceContainer",
                 ContainerDefinitionOptions.builder()
                         //定義image映像位置與版本號，此範例中是使用存放於AWS ECR中的Image。
                         .image(ContainerImage.fromEcrRepository(invoicesServiceProps.repository(), "1.0.0"))
                         .containerName("invoicesService")
-                        .logging(awsLogDriver) //將log儲存到CloudWatch
+                        .logging(logDriver)
                         .portMappings(Collections.singletonList(PortMapping.builder()
                                 .containerPort(9095)
                                 .protocol(Protocol.TCP)
                                 .build()))
                         .environment(envVariables) //這個環境變數會傳遞到InvoicesService應用程式中，作為port或其他變數使用。
-                        .cpu(384)
-                        .memoryLimitMiB(896)
+                        .healthCheck(invoicesServiceProps.rolloutSettings().appHealthCheck(9095))
+                        .cpu(invoicesServiceProps.sizing().containerCpu())
+                        //只設定保留值(soft limit)，不設上限，記憶體不夠時可以使用task中其他容器沒用到的部分，不會被OOM kill。
+                        .memoryReservationMiB(invoicesServiceProps.sizing().containerMemoryMiB())
                         .build()); //新增一個容器
 
-        //為AWS X-Ray單獨分配一個容器，不應該把AWS X-Ray放入其他容器，會造成爭奪資源的情況。
-        fargateTaskDefinition.addContainer("xray", ContainerDefinitionOptions.builder()
-                .image(ContainerImage.fromRegistry("public.ecr.aws/xray/aws-xray-daemon:latest"))
-                .containerName("XRayInvoicesService")
-                .logging(new AwsLogDriver(AwsLogDriverProps.builder()
-                        .logGroup(new LogGroup(this, "XRayLogGroup", LogGroupProps.builder()
-                                .logGroupName("XRayInvoicesService")
-                                .removalPolicy(RemovalPolicy.DESTROY)
-                                .retention(RetentionDays.ONE_MONTH)
-                                .build()))
-                        .streamPrefix("XRayInvoicesService")
-                        .build()))
-                .portMappings(Collections.singletonList(PortMapping.builder()
-                        .containerPort(2000)
-                        .protocol(Protocol.UDP)
-                        .build()))
-                .cpu(128)
-                .memoryLimitMiB(128)
+        //OpenTelemetry collector sidecar：接收OTLP traces/metrics，匯出到X-Ray與CloudWatch
+        ContainerDefinition otelCollector = OtelCollectorSidecar.addTo(this, fargateTaskDefinition,
+                invoicesServiceProps.networkSettings(), "InvoicesService");
+        //collector可以接收traces後才啟動應用程式，避免啟動期間的traces與metrics遺失
+        appContainer.addContainerDependencies(ContainerDependency.builder()
+                .container(otelCollector)
+                .condition(ContainerDependencyCondition.HEALTHY)
                 .build());
 
         //建立應用程式監聽器
@@ -105,9 +101,16 @@ public class InvoicesServiceStack extends Stack {
                         .serviceName("InvoicesService")
                         .cluster(invoicesServiceProps.cluster())
                         .taskDefinition(fargateTaskDefinition)
-                        .desiredCount(2) //欲建立的實例數量
-                        //DO NOT DO THIS IN PROD!!
-                        .assignPublicIp(true) //會這樣設定是因為在VPC中，我們選擇不建立natGateways(擁有自己的IP)
+                        .desiredCount(invoicesServiceProps.sizing().desiredCount()) //欲建立的實例數量
+                        //沒有NAT時，放在public subnet需要公有IP才能存取AWS API；
+                        //放在private isolated subnet則透過VPC endpoint存取，不需要公有IP。
+                        .assignPublicIp(invoicesServiceProps.networkSettings().assignPublicIp())
+                        .vpcSubnets(invoicesServiceProps.networkSettings().subnets())
+                        //JVM啟動與暖機期間不因為健康檢查失敗而被替換
+                        .healthCheckGracePeriod(invoicesServiceProps.trafficSettings().healthCheckGracePeriod())
+                        .minHealthyPercent(invoicesServiceProps.rolloutSettings().minHealthyPercent())
+                        .maxHealthyPercent(invoicesServiceProps.rolloutSettings().maxHealthyPercent())
+                        .circuitBreaker(invoicesServiceProps.rolloutSettings().circuitBreaker()) //新版本無法穩定運行時自動回滾
                         .build());
 
         /*
@@ -115,55 +118,108 @@ public class InvoicesServiceStack extends Stack {
         所以要設定可以去ECR取得image
          */
         invoicesServiceProps.repository().grantPull(Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
+        invoicesServiceProps.networkSettings().grantPublicImagePull(this,
+                Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
 
         //接受任何來自IP位址的任何內容，且在服務中設定TCP 9095 port來接收通訊傳入的請求。
         fargateService.getConnections().getSecurityGroups().get(0).addIngressRule(Peer.ipv4(invoicesServiceProps
                 .vpc().getVpcCidrBlock()), Port.tcp(9095));
 
         //建立監聽器目標:，確認健康狀態。
-        applicationListener.addTargets("InvoicesServiceAlbTarget",
+        ApplicationTargetGroup applicationTargetGroup = applicationListener.addTargets("InvoicesServiceAlbTarget",
                 AddApplicationTargetsProps.builder()
                         .targetGroupName("invoicesServiceAlb")
                         .port(9095)
                         .protocol(ApplicationProtocol.HTTP)
                         .targets(Collections.singletonList(fargateService))
-                        .deregistrationDelay(Duration.seconds(30))
+                        .deregistrationDelay(invoicesServiceProps.trafficSettings().deregistrationDelay())
+                        .slowStart(invoicesServiceProps.trafficSettings().slowStart()) //新任務的流量逐步增加，讓JIT先暖機
+                        .loadBalancingAlgorithmType(invoicesServiceProps.trafficSettings().loadBalancingAlgorithm())
                         .healthCheck(HealthCheck.builder()
                                 .enabled(true)
-                                .interval(Duration.seconds(30)) //每30秒發送一次健康檢查請求，確認實例健康狀態。
-                                .timeout(Duration.seconds(10)) //超過10秒沒回應為逾時。
+                                .interval(Duration.seconds(10)) //每10秒發送一次健康檢查請求，確認實例健康狀態。
+                                .timeout(Duration.seconds(5)) //超過5秒沒回應為逾時。
+                                .healthyThresholdCount(2) //連續2次成功就開始接收流量
+                                .unhealthyThresholdCount(3)
                                 .path("/actuator/health") //SpringBoot中我們有引入此套件，負責確認應用程式健康狀態。
                                 .port("9095")
                                 .build())
                         .build()
         );
 
-        //建立NetworkListener
-        NetworkListener networkListener = invoicesServiceProps.networkLoadBalancer()
-                .addListener("InvoicesServiceNlbListener", BaseNetworkListenerProps.builder()
-                        .port(9095)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .build());
+        //建立NetworkListener，HTTP API模式直接經由ALB，沒有NLB
+        NetworkTargetGroup networkTargetGroup = null;
+        if (invoicesServiceProps.networkLoadBalancer() != null) {
+            NetworkListener networkListener = invoicesServiceProps.networkLoadBalancer()
+                    .addListener("InvoicesServiceNlbListener", BaseNetworkListenerProps.builder()
+                            .port(9095)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .build());
 
-        networkListener.addTargets("InvoicesServiceNlbTarget",
-                AddNetworkTargetsProps.builder()
-                        .port(9095)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .targetGroupName("invoicesServiceNlb")
-                        .targets(Collections.singletonList(
-                                fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
-                                        .containerName("invoicesService")
-                                        .containerPort(9095)
-                                        .protocol(Protocol.TCP)
-                                        .build())))
-                        .build());
+            networkTargetGroup = networkListener.addTargets("InvoicesServiceNlbTarget",
+                    AddNetworkTargetsProps.builder()
+                            .port(9095)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .targetGroupName("invoicesServiceNlb")
+                            .deregistrationDelay(invoicesServiceProps.trafficSettings().deregistrationDelay())
+                            //NLB預設每30秒檢查、連續5次成功才健康，新任務要等2分半以上才會接到流量
+                            .healthCheck(HealthCheck.builder()
+                                    .interval(Duration.seconds(10))
+                                    .healthyThresholdCount(2)
+                                    .unhealthyThresholdCount(2)
+                                    .build())
+                            .targets(Collections.singletonList(
+                                    fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
+                                            .containerName("invoicesService")
+                                            .containerPort(9095)
+                                            .protocol(Protocol.TCP)
+                                            .build())))
+                            .build());
+            invoicesServiceProps.trafficSettings().applyTo(networkTargetGroup);
+        }
 
+        //InvoicesService沒有自己的table與佇列
+        this.monitoring = new ServiceMonitoring("InvoicesService", fargateService,
+                applicationTargetGroup, networkTargetGroup,
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+        ServiceScalingSettings scalingSettings = invoicesServiceProps.scalingSettings();
         ScalableTaskCount scalableTaskCount = fargateService.autoScaleTaskCount(
                 EnableScalingProps.builder()
-                        .maxCapacity(4)
-                        .minCapacity(2)
+                        .maxCapacity(invoicesServiceProps.sizing().maxCapacity())
+                        .minCapacity(invoicesServiceProps.sizing().minCapacity())
                         .build()
         );
+        scalableTaskCount.scaleOnCpuUtilization("InvoicesServiceCpuScaling",
+                CpuUtilizationScalingProps.builder()
+                        .targetUtilizationPercent(scalingSettings.cpuCeilingPercent())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180))
+                        .build());
+        //產生發票時會把資料載入記憶體，記憶體使用率也納入判斷。
+        scalableTaskCount.scaleOnMemoryUtilization("InvoicesServiceMemoryScaling",
+                MemoryUtilizationScalingProps.builder()
+                        .targetUtilizationPercent(invoicesServiceProps.memoryTargetPercent())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180))
+                        .build());
+        scalableTaskCount.scaleOnRequestCount("InvoicesServiceRequestCountScaling",
+                RequestCountScalingProps.builder()
+                        .targetGroup(applicationTargetGroup)
+                        .requestsPerTarget(scalingSettings.requestsPerTarget())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180))
+                        .build());
+
+        //已知的帳單批次時段：在負載來之前先把最小實例數拉高，結束後再恢復成SizingProfile的範圍。
+        for (ScheduledCapacity scheduledCapacity : invoicesServiceProps.scheduledCapacities()) {
+            scalableTaskCount.scaleOnSchedule(scheduledCapacity.name(),
+                    scheduledCapacity.scalingSchedule(invoicesServiceProps.sizing()));
+        }
+    }
+
+    public ServiceMonitoring getMonitoring() {
+        return monitoring;
     }
 }
 
@@ -172,6 +228,58 @@ record InvoicesServiceProps(
         Cluster cluster,
         NetworkLoadBalancer networkLoadBalancer,
         ApplicationLoadBalancer applicationLoadBalancer,
-        Repository repository
+        Repository repository,
+        CpuArchitecture cpuArchitecture,
+        TaskNetworkSettings networkSettings,
+        ServiceSizing sizing,
+        JvmSettings jvmSettings,
+        ProfilingSettings profilingSettings,
+        ServiceScalingSettings scalingSettings,
+        TargetTrafficSettings trafficSettings,
+        RolloutSettings rolloutSettings,
+        LogRoutingSettings logRoutingSettings,
+        int memoryTargetPercent,
+        List<ScheduledCapacity> scheduledCapacities
 ) {
 }
+
+/**
+ * 排程擴張設定。排程動作會直接覆寫scalable target的min/max，所以數值以SizingProfile為界：
+ * 同一份cdk.json用在dev(max 2)時不會把服務撐到比profile更大，恢復排程也不會縮小peak的maxCapacity。
+ *
+ * @param name        排程名稱，同時作為CDK construct id
+ * @param schedule    Application Auto Scaling排程，例如 "cron(30 23 L * ? *)"，時間為UTC
+ * @param minCapacity 排程時段的最小實例數，會夾在profile的minCapacity~maxCapacity之間；null表示恢復profile的minCapacity
+ * @param maxCapacity 排程時段的最大實例數，必須在profile範圍內；null表示恢復profile的maxCapacity
+ */
+record ScheduledCapacity(
+        String name,
+        String schedule,
+        Integer minCapacity,
+        Integer maxCapacity
+) {
+    ScheduledCapacity {
+        Objects.requireNonNull(name, "scheduled capacity name");
+        Objects.requireNonNull(schedule, "scheduled capacity schedule");
+    }
+
+    ScalingSchedule scalingSchedule(ServiceSizing sizing) {
+        int scheduledMin = minCapacity == null ? sizing.minCapacity()
+                : Math.max(sizing.minCapacity(), Math.min(minCapacity, sizing.maxCapacity()));
+        int scheduledMax = maxCapacity == null ? sizing.maxCapacity() : maxCapacity;
+        if (scheduledMax < sizing.minCapacity() || scheduledMax > sizing.maxCapacity()) {
+            throw new IllegalArgumentException("Scheduled capacity " + name + " maxCapacity (" + scheduledMax +
+                    ") must be between the sizing profile's minCapacity (" + sizing.minCapacity() +
+                    ") and maxCapacity (" + sizing.maxCapacity() + ")");
+        }
+        if (scheduledMin > scheduledMax) {
+            throw new IllegalArgumentException("Scheduled capacity " + name + " minCapacity (" + scheduledMin +
+                    ") must not exceed maxCapacity (" + scheduledMax + ")");
+        }
+        return ScalingSchedule.builder()
+                .schedule(Schedule.expression(schedule))
+                .minCapacity(scheduledMin)
+                .maxCapacity(scheduledMax)
+                .build();
+    }
+}
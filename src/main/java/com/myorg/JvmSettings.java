@@ -0,0 +1,35 @@
+/**
+ * 容器內JVM參數，組合成JAVA_TOOL_OPTIONS傳入容器，JVM啟動時會自動讀取。
+ */
+package com.myorg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @param garbageCollector GC種類：G1、Parallel、Serial、Z。
+ *                         task小於2 vCPU或1792 MiB時JVM預設會選SerialGC，所以這裡明確指定。
+ * @param maxMetaspaceMiB  Metaspace上限，避免類別載入把非heap記憶體吃光
+ * @param cdsArchivePath   AppCDS archive在image中的路徑，空字串表示不使用，可縮短啟動時間
+ */
+record JvmSettings(
+        String garbageCollector,
+        int maxMetaspaceMiB,
+        String cdsArchivePath
+) {
+    /**
+     * @param heapOptions SizingProfile中的heap參數(MaxRAMPercentage...)
+     */
+    String javaToolOptions(String heapOptions) {
+        List<String> options = new ArrayList<>();
+        options.add(heapOptions);
+        options.add("-XX:+Use" + garbageCollector + "GC");
+        options.add("-XX:MaxMetaspaceSize=" + maxMetaspaceMiB + "m");
+        options.add("-XX:+ExitOnOutOfMemoryError"); //OOM時直接結束，讓ECS換一個新的任務
+        if (!cdsArchivePath.isEmpty()) {
+            options.add("-XX:SharedArchiveFile=" + cdsArchivePath);
+            options.add("-Xshare:auto"); //archive不存在或不相容時照常啟動
+        }
+        return String.join(" ", options);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Monitoring Stack 監控Stack，集中建立儀表板與告警，資源來自其他Stack。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.sns.Topic;
+import software.amazon.awscdk.services.sns.TopicProps;
+import software.amazon.awscdk.services.sns.subscriptions.EmailSubscription;
+import software.constructs.Construct;
+
+import java.util.List;
+
+public class MonitoringStack extends Stack {
+    private final Topic alarmTopic;
+
+    public MonitoringStack(final Construct scope, final String id, final StackProps props,
+                           MonitoringStackProps monitoringStackProps) {
+        super(scope, id, props);
+
+        new PerformanceDashboard(this, "PerformanceDashboard", new PerformanceDashboardProps(
+                "ECommerce-Performance",
+                monitoringStackProps.apiStack(),
+                monitoringStackProps.services()));
+
+        this.alarmTopic = new Topic(this, "AlarmTopic", TopicProps.builder()
+                .displayName("ECommerce alarms")
+                .topicName("ecommerce-alarms")
+                .build());
+        if (monitoringStackProps.alarmEmail() != null && !monitoringStackProps.alarmEmail().isBlank()) {
+            this.alarmTopic.addSubscription(new EmailSubscription(monitoringStackProps.alarmEmail()));
+        }
+
+        new SloAlarms(this, "SloAlarms", new SloAlarmsProps(
+                monitoringStackProps.apiStack(),
+                monitoringStackProps.routeSlos(),
+                monitoringStackProps.services(),
+                monitoringStackProps.queueMaxAge(),
+                this.alarmTopic));
+    }
+
+    public Topic getAlarmTopic() {
+        return alarmTopic;
+    }
+}
+
+/**
+ * @param alarmEmail 接收告警的email，空白則不訂閱(可以另外在SNS訂閱PagerDuty等)
+ */
+record MonitoringStackProps(
+        ApiStack apiStack,
+        List<ServiceMonitoring> services,
+        List<RouteSlo> routeSlos,
+        Duration queueMaxAge,
+        String alarmEmail
+) {
+}
@@ -7,6 +7,8 @@ import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
 import software.amazon.awscdk.services.apigateway.VpcLink;
 import software.amazon.awscdk.services.apigateway.VpcLinkProps;
+import software.amazon.awscdk.services.ec2.SubnetSelection;
+import software.amazon.awscdk.services.ec2.SubnetType;
 import software.amazon.awscdk.services.ec2.Vpc;
 import software.amazon.awscdk.services.elasticloadbalancingv2.ApplicationLoadBalancer;
 import software.amazon.awscdk.services.elasticloadbalancingv2.ApplicationLoadBalancerProps;
@@ -18,20 +20,36 @@ import java.util.Collections;
 
 public class NlbStack extends Stack {
     private final VpcLink vpcLink;
+    private final software.amazon.awscdk.services.apigatewayv2.VpcLink httpVpcLink;
     private final NetworkLoadBalancer networkLoadBalancer;
     private final ApplicationLoadBalancer applicationLoadBalancer;
 
     public NlbStack(final Construct scope, final String id, final StackProps props, NlbStackProps nlbStackProps) {
         super(scope, id, props);
-        this.networkLoadBalancer = new NetworkLoadBalancer(this, "Nlb", NetworkLoadBalancerProps.builder()
-                .loadBalancerName("ECommerceNlb")
-                .internetFacing(false) //是否在AWS資源外也看的到此網路負載平衡器
-                .vpc(nlbStackProps.vpc())
-                .build());
+        if (nlbStackProps.apiType() == ApiType.REST) {
+            this.networkLoadBalancer = new NetworkLoadBalancer(this, "Nlb", NetworkLoadBalancerProps.builder()
+                    .loadBalancerName("ECommerceNlb")
+                    .internetFacing(false) //是否在AWS資源外也看的到此網路負載平衡器
+                    .vpc(nlbStackProps.vpc())
+                    .build());
 
-        this.vpcLink = new VpcLink(this, "VpcLink", VpcLinkProps.builder()
-                .targets(Collections.singletonList(this.networkLoadBalancer))
-                .build());
+            this.vpcLink = new VpcLink(this, "VpcLink", VpcLinkProps.builder()
+                    .targets(Collections.singletonList(this.networkLoadBalancer))
+                    .build());
+            this.httpVpcLink = null;
+        } else {
+            //HTTP API的VPC Link v2可以直接連到ALB，少一層NLB
+            this.networkLoadBalancer = null;
+            this.vpcLink = null;
+            this.httpVpcLink = new software.amazon.awscdk.services.apigatewayv2.VpcLink(this, "HttpVpcLink",
+                    software.amazon.awscdk.services.apigatewayv2.VpcLinkProps.builder()
+                            .vpcLinkName("ECommerceHttpVpcLink")
+                            .vpc(nlbStackProps.vpc())
+                            .subnets(SubnetSelection.builder()
+                                    .subnetType(SubnetType.PRIVATE_ISOLATED)
+                                    .build())
+                            .build());
+        }
 
         this.applicationLoadBalancer = new ApplicationLoadBalancer(this, "Alb", ApplicationLoadBalancerProps.builder()
                 .loadBalancerName("ECommerceAlb")
@@ -40,12 +58,23 @@ public class NlbStack extends Stack {
                 .build());
     }
 
-
-
+    /**
+     * REST模式才有，HTTP模式為null
+     */
     public VpcLink getVpcLink() {
         return vpcLink;
     }
 
+    /**
+     * HTTP模式才有，REST模式為null
+     */
+    public software.amazon.awscdk.services.apigatewayv2.VpcLink getHttpVpcLink() {
+        return httpVpcLink;
+    }
+
+    /**
+     * REST模式才有，HTTP模式為null
+     */
     public NetworkLoadBalancer getNetworkLoadBalancer() {
         return networkLoadBalancer;
     }
@@ -55,5 +84,5 @@ public class NlbStack extends Stack {
     }
 }
 
-record NlbStackProps(Vpc vpc) {
+record NlbStackProps(Vpc vpc, ApiType apiType) {
 }
@@ -0,0 +1,184 @@
+/**
+ * OpenTelemetry collector (ADOT) sidecar，ProductsService、AuditService、InvoicesService共用。
+ * 應用程式以OTLP送出traces與metrics(JVM、HTTP server、DynamoDB client…)，由collector批次處理後
+ * traces匯出到X-Ray、metrics以EMF格式寫入CloudWatch Logs，取代原本只轉送traces的X-Ray daemon。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.RemovalPolicy;
+import software.amazon.awscdk.services.ecs.AwsLogDriver;
+import software.amazon.awscdk.services.ecs.AwsLogDriverMode;
+import software.amazon.awscdk.services.ecs.AwsLogDriverProps;
+import software.amazon.awscdk.services.ecs.ContainerDefinition;
+import software.amazon.awscdk.services.ecs.ContainerDefinitionOptions;
+import software.amazon.awscdk.services.ecs.FargateTaskDefinition;
+import software.amazon.awscdk.services.ecs.HealthCheck;
+import software.amazon.awscdk.services.ecs.PortMapping;
+import software.amazon.awscdk.services.ecs.Protocol;
+import software.amazon.awscdk.services.iam.ManagedPolicy;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.logs.LogGroup;
+import software.amazon.awscdk.services.logs.LogGroupProps;
+import software.amazon.awscdk.services.logs.RetentionDays;
+import software.constructs.Construct;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class OtelCollectorSidecar {
+    /**
+     * ADOT collector的public image為multi-arch，會依照task的CPU架構拉取對應版本。固定版本，避免latest改變設定格式。
+     */
+    private static final String IMAGE = "aws-observability/aws-otel-collector:v0.40.0";
+    static final String CONTAINER_NAME = "otelCollector";
+    static final int OTLP_GRPC_PORT = 4317;
+    static final int OTLP_HTTP_PORT = 4318;
+    static final int XRAY_DAEMON_PORT = 2000;
+
+    /**
+     * collector設定，透過AOT_CONFIG_CONTENT傳入。
+     * awsxray receiver保留UDP 2000，還在使用X-Ray SDK的應用程式不用修改也能繼續送出traces；
+     * 同一個port的TCP為取樣規則的proxy。
+     * traces每秒送出一次，metrics每60秒彙總一次；memory_limiter讓collector在sidecar記憶體上限內先丟資料而不是被OOM kill。
+     * %s為EMF的log group名稱。
+     */
+    private static final String CONFIG = """
+            extensions:
+              health_check:
+                endpoint: 0.0.0.0:13133
+            receivers:
+              otlp:
+                protocols:
+                  grpc:
+                    endpoint: 0.0.0.0:4317
+                  http:
+                    endpoint: 0.0.0.0:4318
+              awsxray:
+                endpoint: 0.0.0.0:2000
+                transport: udp
+                proxy_server:
+                  endpoint: 0.0.0.0:2000 #TCP，SDK透過這裡取得X-Ray取樣規則
+            processors:
+              memory_limiter:
+                check_interval: 1s
+                limit_mib: 100
+                spike_limit_mib: 25
+              batch/traces:
+                timeout: 1s
+                send_batch_size: 50
+              batch/metrics:
+                timeout: 60s
+            exporters:
+              awsxray:
+                index_all_attributes: false
+              awsemf:
+                namespace: ECommerce
+                log_group_name: %s
+                log_stream_name: '{TaskId}'
+                dimension_rollup_option: NoDimensionRollup
+                resource_to_telemetry_conversion:
+                  enabled: true
+            service:
+              extensions: [health_check]
+              pipelines:
+                traces:
+                  receivers: [otlp, awsxray]
+                  processors: [memory_limiter, batch/traces]
+                  exporters: [awsxray]
+                metrics:
+                  receivers: [otlp]
+                  processors: [memory_limiter, batch/metrics]
+                  exporters: [awsemf]
+            """;
+
+    /**
+     * EMF metrics的log group前綴，每個服務一個log group，由CDK建立並設定保存期限。
+     */
+    private static final String METRICS_LOG_GROUP_PREFIX = "/ecommerce/otel/metrics/";
+
+    private OtelCollectorSidecar() {
+    }
+
+    /**
+     * 在task中加入collector sidecar，並給予task role寫入X-Ray與EMF log group的權限。
+     *
+     * @param serviceName 服務名稱，作為log group名稱的一部分，例如 "ProductsService"
+     */
+    static ContainerDefinition addTo(Construct scope, FargateTaskDefinition taskDefinition,
+                                     TaskNetworkSettings networkSettings, String serviceName) {
+        //由CDK建立EMF的log group：collector自動建立的log group沒有保存期限，權限也只需要這個log group
+        LogGroup metricsLogGroup = new LogGroup(scope, "OtelMetricsLogGroup", LogGroupProps.builder()
+                .logGroupName(METRICS_LOG_GROUP_PREFIX + serviceName)
+                .removalPolicy(RemovalPolicy.DESTROY)
+                .retention(RetentionDays.ONE_MONTH)
+                .build());
+
+        //為collector單獨分配一個容器，不應該放入應用程式的容器，會造成爭奪資源的情況。
+        ContainerDefinition container = taskDefinition.addContainer("otelCollector",
+                ContainerDefinitionOptions.builder()
+                        .image(networkSettings.publicImage(IMAGE))
+                        .containerName(CONTAINER_NAME)
+                        .environment(Collections.singletonMap("AOT_CONFIG_CONTENT",
+                                CONFIG.formatted(METRICS_LOG_GROUP_PREFIX + serviceName)))
+                        .logging(new AwsLogDriver(AwsLogDriverProps.builder()
+                                .logGroup(new LogGroup(scope, "OtelCollectorLogGroup", LogGroupProps.builder()
+                                        .logGroupName("OtelCollector" + serviceName)
+                                        .removalPolicy(RemovalPolicy.DESTROY)
+                                        .retention(RetentionDays.ONE_MONTH)
+                                        .build()))
+                                .streamPrefix("OtelCollector" + serviceName)
+                                .mode(AwsLogDriverMode.NON_BLOCKING)
+                                .build()))
+                        .portMappings(Arrays.asList(
+                                PortMapping.builder().containerPort(OTLP_GRPC_PORT).protocol(Protocol.TCP).build(),
+                                PortMapping.builder().containerPort(OTLP_HTTP_PORT).protocol(Protocol.TCP).build(),
+                                PortMapping.builder().containerPort(XRAY_DAEMON_PORT).protocol(Protocol.UDP).build()))
+                        //image內建的healthcheck程式會檢查health_check extension(13133)，應用程式容器等到HEALTHY才啟動
+                        .healthCheck(HealthCheck.builder()
+                                .command(List.of("/healthcheck"))
+                                .interval(Duration.seconds(5))
+                                .timeout(Duration.seconds(2))
+                                .retries(3)
+                                .startPeriod(Duration.seconds(5))
+                                .build())
+                        .cpu(ServiceSizing.SIDECAR_CPU)
+                        .memoryReservationMiB(ServiceSizing.SIDECAR_MEMORY_RESERVATION_MIB)
+                        .memoryLimitMiB(ServiceSizing.SIDECAR_MEMORY_MIB) //sidecar保留上限，避免sidecar異常時吃掉應用程式的記憶體
+                        .build());
+
+        taskDefinition.getTaskRole().addManagedPolicy(
+                ManagedPolicy.fromAwsManagedPolicyName("AWSXrayWriteOnlyAccess"));
+        taskDefinition.addToTaskRolePolicy(PolicyStatement.Builder.create()
+                .actions(List.of("logs:CreateLogStream", "logs:PutLogEvents", "logs:DescribeLogStreams"))
+                .resources(Collections.singletonList(metricsLogGroup.getLogGroupArn()))
+                .build());
+        return container;
+    }
+
+    /**
+     * 應用程式容器的OpenTelemetry環境變數(ADOT Java agent或OpenTelemetry SDK皆會讀取)。
+     * 同一個task的容器共用網路，collector位於localhost。
+     *
+     * @param serviceName OpenTelemetry的service.name，同時是X-Ray service map上的名稱
+     */
+    static Map<String, String> environment(String serviceName) {
+        Map<String, String> environment = new HashMap<>();
+        environment.put("OTEL_SERVICE_NAME", serviceName);
+        environment.put("OTEL_RESOURCE_ATTRIBUTES", "service.namespace=ECommerce");
+        environment.put("OTEL_EXPORTER_OTLP_ENDPOINT", "http://localhost:" + OTLP_GRPC_PORT);
+        environment.put("OTEL_EXPORTER_OTLP_PROTOCOL", "grpc");
+        environment.put("OTEL_TRACES_EXPORTER", "otlp");
+        environment.put("OTEL_METRICS_EXPORTER", "otlp");
+        environment.put("OTEL_LOGS_EXPORTER", "none"); //log仍然由容器的log driver處理
+        environment.put("OTEL_PROPAGATORS", "tracecontext,baggage,xray");
+        environment.put("OTEL_METRIC_EXPORT_INTERVAL", "60000");
+        //還在使用X-Ray SDK時，由collector的awsxray receiver接收
+        environment.put("AWS_XRAY_DAEMON_ADDRESS", "localhost:" + XRAY_DAEMON_PORT);
+        environment.put("AWS_XRAY_CONTEXT_MISSING", "IGNORE_ERROR");
+        return environment;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * 效能儀表板：依照請求經過的路徑 API Gateway → NLB → ALB → ECS → DynamoDB / SQS 排列，
+ * 每個服務一個區塊，圖表由各Stack已建立的資源(ServiceMonitoring)自動產生。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.services.cloudwatch.Dashboard;
+import software.amazon.awscdk.services.cloudwatch.DashboardProps;
+import software.amazon.awscdk.services.cloudwatch.GraphWidget;
+import software.amazon.awscdk.services.cloudwatch.GraphWidgetProps;
+import software.amazon.awscdk.services.cloudwatch.IMetric;
+import software.amazon.awscdk.services.cloudwatch.IWidget;
+import software.amazon.awscdk.services.cloudwatch.MetricOptions;
+import software.amazon.awscdk.services.cloudwatch.TextWidget;
+import software.amazon.awscdk.services.cloudwatch.TextWidgetProps;
+import software.amazon.awscdk.services.dynamodb.Table;
+import software.amazon.awscdk.services.ecs.FargateService;
+import software.amazon.awscdk.services.elasticloadbalancingv2.ApplicationTargetGroup;
+import software.amazon.awscdk.services.elasticloadbalancingv2.NetworkTargetGroup;
+import software.amazon.awscdk.services.sqs.Queue;
+import software.constructs.Construct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class PerformanceDashboard extends Construct {
+    private static final List<String> LATENCY_PERCENTILES = List.of("p50", "p90", "p99");
+    private static final Duration PERIOD = Duration.minutes(1);
+
+    public PerformanceDashboard(final Construct scope, final String id, PerformanceDashboardProps props) {
+        super(scope, id);
+
+        Dashboard dashboard = new Dashboard(this, "Dashboard", DashboardProps.builder()
+                .dashboardName(props.dashboardName())
+                .defaultInterval(Duration.hours(3))
+                .build());
+
+        //API Gateway是所有服務共用的入口，Latency扣掉IntegrationLatency就是API Gateway本身的延遲。
+        dashboard.addWidgets(title("# API Gateway"));
+        dashboard.addWidgets(
+                latencyGraph("Latency", props.apiStack()::metricLatency),
+                latencyGraph("IntegrationLatency", props.apiStack()::metricIntegrationLatency),
+                graph("Requests / 5xx",
+                        List.of(props.apiStack().metricCount(options("Sum").label("Requests").build())),
+                        List.of(props.apiStack().metricServerError(options("Sum").label("5xx").build()))));
+
+        for (ServiceMonitoring service : props.services()) {
+            addServiceWidgets(dashboard, service);
+        }
+    }
+
+    private static void addServiceWidgets(Dashboard dashboard, ServiceMonitoring service) {
+        dashboard.addWidgets(title("## " + service.serviceName()));
+
+        //NLB沒有TargetResponseTime指標，回應時間以ALB為準，NLB只看健康的目標數量。
+        List<IMetric> hostCounts = new ArrayList<>();
+        hostCounts.add(service.applicationTargetGroup().getMetrics().healthyHostCount(options("Minimum")
+                .label("ALB healthy").build()));
+        hostCounts.add(service.applicationTargetGroup().getMetrics().unhealthyHostCount(options("Maximum")
+                .label("ALB unhealthy").build()));
+        if (service.networkTargetGroup() != null) {
+            hostCounts.add(service.networkTargetGroup().getMetrics().healthyHostCount(options("Minimum")
+                    .label("NLB healthy").build()));
+        }
+
+        dashboard.addWidgets(
+                latencyGraph("ALB TargetResponseTime",
+                        metricOptions -> service.applicationTargetGroup().getMetrics().targetResponseTime(metricOptions)),
+                graph("Healthy hosts", hostCounts, List.of()),
+                graph("ECS CPU / Memory (%)",
+                        List.of(service.service().metricCpuUtilization(options("Average").label("CPU").build()),
+                                service.service().metricMemoryUtilization(options("Average").label("Memory").build())),
+                        List.of()));
+
+        List<IWidget> dataWidgets = new ArrayList<>();
+        for (Table table : service.tables()) {
+            dataWidgets.add(graph(table.getNode().getId() + " consumed capacity / throttles",
+                    List.of(table.metricConsumedReadCapacityUnits(options("Sum").label("RCU").build()),
+                            table.metricConsumedWriteCapacityUnits(options("Sum").label("WCU").build())),
+                    List.of(table.metric("ReadThrottleEvents", options("Sum").label("Read throttles").build()),
+                            table.metric("WriteThrottleEvents", options("Sum").label("Write throttles").build()))));
+        }
+        if (!service.queues().isEmpty()) {
+            dataWidgets.add(graph("SQS age of oldest message (s)",
+                    service.queues().stream()
+                            .map(queue -> (IMetric) queue.metricApproximateAgeOfOldestMessage(options("Maximum")
+                                    .label(queue.getNode().getId()).build()))
+                            .toList(),
+                    List.of()));
+        }
+        if (!service.deadLetterQueues().isEmpty()) {
+            dataWidgets.add(graph("DLQ depth",
+                    service.deadLetterQueues().stream()
+                            .map(queue -> (IMetric) queue.metricApproximateNumberOfMessagesVisible(options("Maximum")
+                                    .label(queue.getNode().getId()).build()))
+                            .toList(),
+                    List.of()));
+        }
+        if (!dataWidgets.isEmpty()) {
+            dashboard.addWidgets(dataWidgets.toArray(new IWidget[0]));
+        }
+    }
+
+    private static GraphWidget latencyGraph(String title, Function<MetricOptions, IMetric> metric) {
+        return graph(title, LATENCY_PERCENTILES.stream()
+                .map(percentile -> metric.apply(options(percentile).label(percentile).build()))
+                .toList(), List.of());
+    }
+
+    private static GraphWidget graph(String title, List<IMetric> left, List<IMetric> right) {
+        return new GraphWidget(GraphWidgetProps.builder()
+                .title(title)
+                .left(left)
+                .right(right)
+                .width(8)
+                .height(6)
+                .build());
+    }
+
+    private static TextWidget title(String markdown) {
+        return new TextWidget(TextWidgetProps.builder()
+                .markdown(markdown)
+                .width(24)
+                .height(1)
+                .build());
+    }
+
+    private static MetricOptions.Builder options(String statistic) {
+        return MetricOptions.builder()
+                .statistic(statistic)
+                .period(PERIOD);
+    }
+}
+
+record PerformanceDashboardProps(
+        String dashboardName,
+        ApiStack apiStack,
+        List<ServiceMonitoring> services
+) {
+}
+
+/**
+ * 儀表板與告警需要的服務資源，由各服務Stack建立後提供。
+ *
+ * @param networkTargetGroup HTTP API模式沒有NLB，為null
+ */
+record ServiceMonitoring(
+        String serviceName,
+        FargateService service,
+        ApplicationTargetGroup applicationTargetGroup,
+        NetworkTargetGroup networkTargetGroup,
+        List<Table> tables,
+        List<Queue> queues,
+        List<Queue> deadLetterQueues
+) {
+}
@@ -0,0 +1,31 @@
+/**
+ * 共用快取中商品資料的key格式，ProductsService與快取失效Lambda共用。
+ * 兩邊都從環境變數讀取格式({name}為欄位值)，Lambda刪除的key與服務寫入的key一定一致。
+ */
+package com.myorg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class ProductsCacheKeys {
+    static final String BY_ID_FORMAT = "product:id:{id}";
+    static final String BY_CODE_FORMAT = "product:code:{code}";
+    /**
+     * GET /products 清單，任何商品異動都需要刪除。
+     */
+    static final String LIST_KEY = "products:all";
+
+    private ProductsCacheKeys() {
+    }
+
+    /**
+     * @param prefix 環境變數前綴，例如服務使用 "AWS_CACHE_"、Lambda使用 "CACHE_"
+     */
+    static Map<String, String> environment(String prefix) {
+        Map<String, String> environment = new HashMap<>();
+        environment.put(prefix + "PRODUCT_BY_ID_KEY_FORMAT", BY_ID_FORMAT);
+        environment.put(prefix + "PRODUCT_BY_CODE_KEY_FORMAT", BY_CODE_FORMAT);
+        environment.put(prefix + "PRODUCTS_LIST_KEY", LIST_KEY);
+        return environment;
+    }
+}
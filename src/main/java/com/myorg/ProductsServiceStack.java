@@ -8,17 +8,41 @@ import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.RemovalPolicy;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.applicationautoscaling.AdjustmentType;
+import software.amazon.awscdk.services.applicationautoscaling.BasicStepScalingPolicyProps;
 import software.amazon.awscdk.services.applicationautoscaling.EnableScalingProps;
+import software.amazon.awscdk.services.applicationautoscaling.ScalingInterval;
+import software.amazon.awscdk.services.cloudwatch.MetricOptions;
+import software.amazon.awscdk.services.dax.CfnCluster;
+import software.amazon.awscdk.services.dax.CfnClusterProps;
+import software.amazon.awscdk.services.dax.CfnSubnetGroup;
+import software.amazon.awscdk.services.dax.CfnSubnetGroupProps;
 import software.amazon.awscdk.services.dynamodb.*;
+import software.amazon.awscdk.services.ec2.ISubnet;
 import software.amazon.awscdk.services.ec2.Peer;
 import software.amazon.awscdk.services.ec2.Port;
+import software.amazon.awscdk.services.ec2.SecurityGroup;
+import software.amazon.awscdk.services.ec2.SecurityGroupProps;
+import software.amazon.awscdk.services.ec2.SubnetSelection;
+import software.amazon.awscdk.services.ec2.SubnetType;
 import software.amazon.awscdk.services.ec2.Vpc;
 import software.amazon.awscdk.services.ecr.Repository;
 import software.amazon.awscdk.services.ecs.*;
 import software.amazon.awscdk.services.ecs.Protocol;
 import software.amazon.awscdk.services.elasticloadbalancingv2.*;
 import software.amazon.awscdk.services.elasticloadbalancingv2.HealthCheck;
-import software.amazon.awscdk.services.iam.ManagedPolicy;
+import software.amazon.awscdk.services.iam.IRole;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.iam.Role;
+import software.amazon.awscdk.services.iam.RoleProps;
+import software.amazon.awscdk.services.iam.ServicePrincipal;
+import software.amazon.awscdk.services.lambda.Code;
+import software.amazon.awscdk.services.lambda.Function;
+import software.amazon.awscdk.services.lambda.FunctionProps;
+import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.StartingPosition;
+import software.amazon.awscdk.services.lambda.eventsources.DynamoEventSource;
+import software.amazon.awscdk.services.lambda.eventsources.DynamoEventSourceProps;
 import software.amazon.awscdk.services.logs.LogGroup;
 import software.amazon.awscdk.services.logs.LogGroupProps;
 import software.amazon.awscdk.services.logs.RetentionDays;
@@ -31,7 +55,16 @@ import software.constructs.Construct;
 import java.util.*;
 
 public class ProductsServiceStack extends Stack {
+    /**
+     * products table有異動時，由DynamoDB Stream觸發此Lambda刪除對應的key，不必等TTL到期。
+     * key格式參考ProductsCacheKeys。
+     */
+    private static final String CACHE_INVALIDATION_CODE = "src/main/resources/lambda/products-cache-invalidation";
+
     private final Topic productsEventsTopic;
+    private final IRole taskRole;
+    private final ApplicationListener applicationListener;
+    private final ServiceMonitoring monitoring;
 
     public ProductsServiceStack(final Construct scope, final String id, final StackProps props, ProductsServiceProps productsServiceProps) {
         super(scope, id, props);
@@ -61,6 +94,7 @@ public class ProductsServiceStack extends Stack {
                 .billingMode(BillingMode.PAY_PER_REQUEST) //建立on-demand mode依照實際流量計費
 //                .readCapacity(1)
 //                .writeCapacity(1)
+                .stream(StreamViewType.NEW_AND_OLD_IMAGES) //異動時需要舊的code才能刪除對應的快取
                 .build());
 
         productDdb.addGlobalSecondaryIndex(GlobalSecondaryIndexProps.builder()
@@ -69,7 +103,10 @@ public class ProductsServiceStack extends Stack {
                         .name("code")
                         .type(AttributeType.STRING)
                         .build())
-                .projectionType(ProjectionType.KEYS_ONLY)
+                //KEYS_ONLY時以code查詢需要再GetItem一次，INCLUDE/ALL可以一次取回商品資料。
+                .projectionType(productsServiceProps.codeIndexProjection().type())
+                .nonKeyAttributes(productsServiceProps.codeIndexProjection().type() == ProjectionType.INCLUDE ?
+                        productsServiceProps.codeIndexProjection().nonKeyAttributes() : null)
 //                .readCapacity(1)
 //                .writeCapacity(1)
                 .build());
@@ -112,75 +149,173 @@ public class ProductsServiceStack extends Stack {
                 .build());
 */
 
+        //DAX (DynamoDB Accelerator)：放在products table前面的記憶體快取，熱門商品的讀取可以在微秒內回應。
+        ProductsDaxSettings daxSettings = productsServiceProps.daxSettings();
+        CfnCluster daxCluster = null;
+        SecurityGroup daxSecurityGroup = null;
+        if (daxSettings.enabled()) {
+            //DAX叢集本身需要一個可以存取products table的角色
+            Role daxRole = new Role(this, "ProductsDaxRole", RoleProps.builder()
+                    .assumedBy(new ServicePrincipal("dax.amazonaws.com"))
+                    .build());
+            productDdb.grantReadWriteData(daxRole);
+
+            //VPC沒有NAT，DAX節點放在private isolated subnet即可，Fargate在同一個VPC內可以直接連線。
+            CfnSubnetGroup daxSubnetGroup = new CfnSubnetGroup(this, "ProductsDaxSubnetGroup",
+                    CfnSubnetGroupProps.builder()
+                            .subnetGroupName("products-dax")
+                            .subnetIds(productsServiceProps.vpc().getIsolatedSubnets().stream()
+                                    .map(ISubnet::getSubnetId)
+                                    .toList())
+                            .build());
+
+            daxSecurityGroup = new SecurityGroup(this, "ProductsDaxSecurityGroup", SecurityGroupProps.builder()
+                    .vpc(productsServiceProps.vpc())
+                    .description("Products DAX cluster")
+                    .allowAllOutbound(true)
+                    .build());
+
+            daxCluster = new CfnCluster(this, "ProductsDax", CfnClusterProps.builder()
+                    .clusterName("products-dax")
+                    .nodeType(daxSettings.nodeType())
+                    .replicationFactor(daxSettings.replicationFactor()) //節點數量，1個primary其餘為read replica
+                    .iamRoleArn(daxRole.getRoleArn())
+                    .subnetGroupName(daxSubnetGroup.getRef())
+                    .securityGroupIds(Collections.singletonList(daxSecurityGroup.getSecurityGroupId()))
+                    .clusterEndpointEncryptionType("TLS") //TLS連線使用9111 port
+                    .sseSpecification(CfnCluster.SSESpecificationProperty.builder()
+                            .sseEnabled(true)
+                            .build())
+                    .build());
+        }
+
+        //快取失效：products table異動時透過DynamoDB Stream刪除共用快取中對應的key
+        CacheEndpoint cacheEndpoint = productsServiceProps.cacheEndpoint();
+        Map<String, String> cacheInvalidationEnv = new HashMap<>();
+        cacheInvalidationEnv.put("CACHE_HOST", cacheEndpoint.primaryAddress());
+        cacheInvalidationEnv.put("CACHE_PORT", cacheEndpoint.port());
+        cacheInvalidationEnv.putAll(ProductsCacheKeys.environment("CACHE_"));
+
+        Function cacheInvalidationFunction = new Function(this, "ProductsCacheInvalidation", FunctionProps.builder()
+                .functionName("products-cache-invalidation")
+                .runtime(Runtime.PYTHON_3_12)
+                .handler("index.handler")
+                .code(Code.fromAsset(CACHE_INVALIDATION_CODE))
+                .memorySize(128)
+                .timeout(Duration.seconds(30))
+                .vpc(productsServiceProps.vpc()) //快取只能從VPC內部連線
+                .vpcSubnets(SubnetSelection.builder()
+                        .subnetType(SubnetType.PRIVATE_ISOLATED)
+                        .build())
+                .environment(cacheInvalidationEnv)
+                .logGroup(new LogGroup(this, "CacheInvalidationLogGroup", LogGroupProps.builder()
+                        .logGroupName("ProductsCacheInvalidation")
+                        .removalPolicy(RemovalPolicy.DESTROY)
+                        .retention(RetentionDays.ONE_MONTH)
+                        .build()))
+                .build());
+        cacheInvalidationFunction.addEventSource(new DynamoEventSource(productDdb, DynamoEventSourceProps.builder()
+                .startingPosition(StartingPosition.LATEST)
+                .batchSize(100)
+                .maxBatchingWindow(Duration.seconds(1)) //最多等1秒合併成一批，減少連線次數
+                .bisectBatchOnError(true)
+                .retryAttempts(3)
+                .build()));
+
         //Fargate 是一種無伺服器容器運行方式，讓用戶不需要管理底層伺服器基礎設施，專注於容器的運行和管理。
         FargateTaskDefinition fargateTaskDefinition = new FargateTaskDefinition(this, "TaskDefinition", FargateTaskDefinitionProps.builder()
                 .family("products-service")
-                .cpu(512)
-                .memoryLimitMiB(1024)
+                .cpu(productsServiceProps.sizing().taskCpu())
+                .memoryLimitMiB(productsServiceProps.sizing().taskMemoryMiB())
+                //Graviton(ARM64)或x86，image需要有對應架構(multi-arch manifest)。
+                .runtimePlatform(RuntimePlatform.builder()
+                        .cpuArchitecture(productsServiceProps.cpuArchitecture())
+                        .operatingSystemFamily(OperatingSystemFamily.LINUX)
+                        .build())
                 .build());
+        this.taskRole = fargateTaskDefinition.getTaskRole();
 
         //定義任務中的應用程式可以讀取與寫入數據
         productDdb.grantReadWriteData(fargateTaskDefinition.getTaskRole());
         this.productsEventsTopic.grantPublish(fargateTaskDefinition.getTaskRole());
+        if (daxCluster != null) {
+            //透過DAX存取table時，權限是對DAX叢集而不是對table
+            fargateTaskDefinition.getTaskRole().addToPrincipalPolicy(PolicyStatement.Builder.create()
+                    .actions(Arrays.asList("dax:GetItem", "dax:BatchGetItem", "dax:Query", "dax:Scan",
+                            "dax:PutItem", "dax:UpdateItem", "dax:DeleteItem", "dax:BatchWriteItem",
+                            "dax:ConditionCheckItem"))
+                    .resources(Collections.singletonList(daxCluster.getAttrArn()))
+                    .build());
+        }
 
-        AwsLogDriver awsLogDriver = new AwsLogDriver(AwsLogDriverProps.builder()
-                .logGroup(new LogGroup(this, "LogGroup", LogGroupProps.builder() //LogGroup可以理解為資料夾
-                        .logGroupName("ProductsService")
-                        .removalPolicy(RemovalPolicy.DESTROY) //移除方案，如果刪除這個Stack，那此資源也會跟著被刪除。
-                        .retention(RetentionDays.ONE_MONTH) //保留日誌的時間長度
-                        .build()))
-                .streamPrefix("ProductsService")//文件前綴名稱
-                .build());
+        //應用程式的log：預設為awslogs non-blocking，開啟FireLens時由Fluent Bit分流
+        LogDriver logDriver = ServiceLogging.appLogDriver(this, fargateTaskDefinition,
+                productsServiceProps.networkSettings(), productsServiceProps.logRoutingSettings(), "ProductsService");
 
         Map<String, String> envVariables = new HashMap<>();
         //傳遞到應用程式中的環境變數
         envVariables.put("Server_PORT", "8080");
         envVariables.put("AWS_PRODUCTSDDB_NAME", productDdb.getTableName());
+        //讓服務知道codeIdx投影了哪些欄位，決定是否需要再回table取資料。
+        envVariables.put("AWS_PRODUCTSDDB_CODE_IDX_PROJECTION", productsServiceProps.codeIndexProjection().type().name());
+        if (productsServiceProps.codeIndexProjection().type() == ProjectionType.INCLUDE) {
+            envVariables.put("AWS_PRODUCTSDDB_CODE_IDX_ATTRIBUTES",
+                    String.join(",", productsServiceProps.codeIndexProjection().nonKeyAttributes()));
+        }
+        if (daxCluster != null) {
+            envVariables.put("AWS_PRODUCTSDAX_ENDPOINT", daxCluster.getAttrClusterDiscoveryEndpointUrl());
+        }
         envVariables.put("AWS_SNS_TOPIC_PRODUCT_EVENTS", this.productsEventsTopic.getTopicArn());
+        envVariables.put("AWS_CACHE_ENDPOINT", cacheEndpoint.primaryAddress());
+        envVariables.put("AWS_CACHE_READER_ENDPOINT", cacheEndpoint.readerAddress());
+        envVariables.put("AWS_CACHE_PORT", cacheEndpoint.port());
+        envVariables.putAll(ProductsCacheKeys.environment("AWS_CACHE_"));
         envVariables.put("AWS_REGION", this.getRegion());
-        envVariables.put("AWS_XRAY_DAEMON_ADDRESS", "0.0.0.0:2000");
-        envVariables.put("AWS_XRAY_CONTEXT_MISSING", "IGNORE_ERROR");
+        //PUT/DELETE後清除API Gateway stage快取，參考ApiStack.grantProductsCacheInvalidation
+        envVariables.putAll(productsServiceProps.cacheFlushSettings().environment());
+        envVariables.putAll(OtelCollectorSidecar.environment("productsservice"));
+        //X-Ray取樣規則：GET /products/{id}讀取量最大，取樣率最低；新增商品較少且較重要，取樣率較高。
+        List<String> samplingRules = TracingSampling.addRules(this, "productsservice", List.of(
+                        SamplingRoute.route("GetById", "GET", "/api/products/*", 0.01, 1, 100),
+                        SamplingRoute.route("Create", "POST", "/api/products", 0.2, 5, 200),
+                        SamplingRoute.route("UpdateDelete", "*", "/api/products/*", 0.1, 2, 300)),
+                SamplingRoute.fallback("Default", 0.05, 1));
+        envVariables.putAll(TracingSampling.environment(samplingRules));
         envVariables.put("AWS_XRAY_TRACING_NAME", "productsservice");
         envVariables.put("LOGGING_LEVEL_ROOT", "INFO");
+        envVariables.put("JAVA_TOOL_OPTIONS", productsServiceProps.profilingSettings().javaToolOptions(
+                productsServiceProps.jvmSettings().javaToolOptions(productsServiceProps.sizing().jvmHeapOptions())));
+        envVariables.putAll(ContinuousProfiling.environment(this, fargateTaskDefinition.getTaskRole(),
+                "ProductsService", productsServiceProps.profilingSettings()));
 
-        fargateTaskDefinition.addContainer("ProductsServiceContainer",
+        ContainerDefinition appContainer = fargateTaskDefinition.addContainer("ProductsServiceContainer",
                 ContainerDefinitionOptions.builder()
                         //定義image映像位置與版本號，此範例中是使用存放於AWS ECR中的Image。
                         .image(ContainerImage.fromEcrRepository(productsServiceProps.repository(), "1.8.0"))
                         .containerName("productsService")
-                        .logging(awsLogDriver) //將log儲存到CloudWatch
+                        .logging(logDriver)
                         .portMappings(Collections.singletonList(PortMapping.builder()
                                 .containerPort(8080)
                                 .protocol(Protocol.TCP)
                                 .build()))
                         .environment(envVariables) //這個環境變數會傳遞到products應用程式中，作為port或其他變數使用。
-                        .cpu(384)
-                        .memoryLimitMiB(896)
+                        .healthCheck(productsServiceProps.rolloutSettings().appHealthCheck(8080))
+                        .cpu(productsServiceProps.sizing().containerCpu())
+                        //只設定保留值(soft limit)，不設上限，記憶體不夠時可以使用task中其他容器沒用到的部分，不會被OOM kill。
+                        .memoryReservationMiB(productsServiceProps.sizing().containerMemoryMiB())
                         .build()); //新增一個容器
 
-        //為AWS X-Ray單獨分配一個容器，不應該把AWS X-Ray放入其他容器，會造成爭奪資源的情況。
-        fargateTaskDefinition.addContainer("xray", ContainerDefinitionOptions.builder()
-                .image(ContainerImage.fromRegistry("public.ecr.aws/xray/aws-xray-dae    mon:latest"))
-                .containerName("XRayProductsService")
-                .logging(new AwsLogDriver(AwsLogDriverProps.builder()
-                        .logGroup(new LogGroup(this, "XRayLogGroup", LogGroupProps.builder()
-                                .logGroupName("XRayProductsService")
-                                .removalPolicy(RemovalPolicy.DESTROY)
-                                .retention(RetentionDays.ONE_MONTH)
-                                .build()))
-                        .streamPrefix("XRayProductsService")
-                        .build()))
-                .portMappings(Collections.singletonList(PortMapping.builder()
-                        .containerPort(2000)
-                        .protocol(Protocol.UDP)
-                        .build()))
-                .cpu(128)
-                .memoryLimitMiB(128)
+        //OpenTelemetry collector sidecar：接收OTLP traces/metrics，匯出到X-Ray與CloudWatch
+        ContainerDefinition otelCollector = OtelCollectorSidecar.addTo(this, fargateTaskDefinition,
+                productsServiceProps.networkSettings(), "ProductsService");
+        //collector可以接收traces後才啟動應用程式，避免啟動期間的traces與metrics遺失
+        appContainer.addContainerDependencies(ContainerDependency.builder()
+                .container(otelCollector)
+                .condition(ContainerDependencyCondition.HEALTHY)
                 .build());
-        fargateTaskDefinition.getTaskRole().addManagedPolicy(ManagedPolicy.fromAwsManagedPolicyName("AWSXrayWriteOnlyAccess"));
 
         //建立應用程式監聽器
-        ApplicationListener applicationListener = productsServiceProps.applicationLoadBalancer()
+        this.applicationListener = productsServiceProps.applicationLoadBalancer()
                 .addListener("ProductsServiceAlbListener", ApplicationListenerProps.builder()
                         .port(8080)
                         .protocol(ApplicationProtocol.HTTP)
@@ -193,75 +328,148 @@ public class ProductsServiceStack extends Stack {
                         .serviceName("ProductsService")
                         .cluster(productsServiceProps.cluster())
                         .taskDefinition(fargateTaskDefinition)
-                        .desiredCount(2) //欲建立的實例數量
-                        //DO NOT DO THIS IN PROD!!
-                        .assignPublicIp(true) //會這樣設定是因為在VPC中，我們選擇不建立natGateways(擁有自己的IP)
+                        .desiredCount(productsServiceProps.sizing().desiredCount()) //欲建立的實例數量
+                        //沒有NAT時，放在public subnet需要公有IP才能存取AWS API；
+                        //放在private isolated subnet則透過VPC endpoint存取，不需要公有IP。
+                        .assignPublicIp(productsServiceProps.networkSettings().assignPublicIp())
+                        .vpcSubnets(productsServiceProps.networkSettings().subnets())
+                        //JVM啟動與暖機期間不因為健康檢查失敗而被替換
+                        .healthCheckGracePeriod(productsServiceProps.trafficSettings().healthCheckGracePeriod())
+                        .minHealthyPercent(productsServiceProps.rolloutSettings().minHealthyPercent())
+                        .maxHealthyPercent(productsServiceProps.rolloutSettings().maxHealthyPercent())
+                        .circuitBreaker(productsServiceProps.rolloutSettings().circuitBreaker()) //新版本無法穩定運行時自動回滾
                         .build());
         /*
         所有在AWS中的資源，即便都屬於你，但彼此溝通還是必須設定開通權限。
         所以要設定可以去ECR取得image
          */
         productsServiceProps.repository().grantPull(Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
+        productsServiceProps.networkSettings().grantPublicImagePull(this,
+                Objects.requireNonNull(fargateTaskDefinition.getExecutionRole()));
 
         //接受任何來自IP位址的任何內容，且在服務中設定TCP 8080 port來接收通訊傳入的請求。
         fargateService.getConnections().getSecurityGroups().get(0).addIngressRule(Peer.ipv4(productsServiceProps
                 .vpc().getVpcCidrBlock()), Port.tcp(8080));
 
+        //只允許ProductsService的任務連線到DAX
+        if (daxSecurityGroup != null) {
+            daxSecurityGroup.addIngressRule(fargateService.getConnections().getSecurityGroups().get(0),
+                    Port.tcp(9111));
+        }
+
         //建立監聽器目標:，確認健康狀態。
-        applicationListener.addTargets("ProductsServiceAlbTarget",
+        ApplicationTargetGroup applicationTargetGroup = this.applicationListener.addTargets("ProductsServiceAlbTarget",
                 AddApplicationTargetsProps.builder()
                         .targetGroupName("productsServiceAlb")
                         .port(8080)
                         .protocol(ApplicationProtocol.HTTP)
                         .targets(Collections.singletonList(fargateService))
-                        .deregistrationDelay(Duration.seconds(30))
+                        .deregistrationDelay(productsServiceProps.trafficSettings().deregistrationDelay())
+                        .slowStart(productsServiceProps.trafficSettings().slowStart()) //新任務的流量逐步增加，讓JIT先暖機
+                        .loadBalancingAlgorithmType(productsServiceProps.trafficSettings().loadBalancingAlgorithm())
                         .healthCheck(HealthCheck.builder()
                                 .enabled(true)
-                                .interval(Duration.seconds(30)) //每30秒發送一次健康檢查請求，確認實例健康狀態。
-                                .timeout(Duration.seconds(10)) //超過10秒沒回應為逾時。
+                                .interval(Duration.seconds(10)) //每10秒發送一次健康檢查請求，確認實例健康狀態。
+                                .timeout(Duration.seconds(5)) //超過5秒沒回應為逾時。
+                                .healthyThresholdCount(2) //連續2次成功就開始接收流量
+                                .unhealthyThresholdCount(3)
                                 .path("/actuator/health") //SpringBoot中我們有引入此套件，負責確認應用程式健康狀態。
                                 .port("8080")
                                 .build())
                         .build()
         );
 
-        //建立NetworkListener
-        NetworkListener networkListener = productsServiceProps.networkLoadBalancer()
-                .addListener("ProductsServiceNlbListener", BaseNetworkListenerProps.builder()
-                        .port(8080)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .build());
+        //建立NetworkListener，HTTP API模式直接經由ALB，沒有NLB
+        NetworkTargetGroup networkTargetGroup = null;
+        if (productsServiceProps.networkLoadBalancer() != null) {
+            NetworkListener networkListener = productsServiceProps.networkLoadBalancer()
+                    .addListener("ProductsServiceNlbListener", BaseNetworkListenerProps.builder()
+                            .port(8080)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .build());
 
-        networkListener.addTargets("ProductServiceNlbTarget",
-                AddNetworkTargetsProps.builder()
-                        .port(8080)
-                        .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
-                        .targetGroupName("productsServiceNlb")
-                        .targets(Collections.singletonList(
-                                fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
-                                        .containerName("productsService")
-                                        .containerPort(8080)
-                                        .protocol(Protocol.TCP)
-                                        .build())))
-                        .build()
-        );
+            networkTargetGroup = networkListener.addTargets("ProductServiceNlbTarget",
+                    AddNetworkTargetsProps.builder()
+                            .port(8080)
+                            .protocol(software.amazon.awscdk.services.elasticloadbalancingv2.Protocol.TCP)
+                            .targetGroupName("productsServiceNlb")
+                            .deregistrationDelay(productsServiceProps.trafficSettings().deregistrationDelay())
+                            //NLB預設每30秒檢查、連續5次成功才健康，新任務要等2分半以上才會接到流量
+                            .healthCheck(HealthCheck.builder()
+                                    .interval(Duration.seconds(10))
+                                    .healthyThresholdCount(2)
+                                    .unhealthyThresholdCount(2)
+                                    .build())
+                            .targets(Collections.singletonList(
+                                    fargateService.loadBalancerTarget(LoadBalancerTargetOptions.builder()
+                                            .containerName("productsService")
+                                            .containerPort(8080)
+                                            .protocol(Protocol.TCP)
+                                            .build())))
+                            .build()
+            );
+            productsServiceProps.trafficSettings().applyTo(networkTargetGroup);
+        }
+
+        this.monitoring = new ServiceMonitoring("ProductsService", fargateService,
+                applicationTargetGroup, networkTargetGroup,
+                List.of(productDdb), Collections.emptyList(), Collections.emptyList());
+
+        ServiceScalingSettings scalingSettings = productsServiceProps.scalingSettings();
         ScalableTaskCount scalableTaskCount = fargateService.autoScaleTaskCount(
                 EnableScalingProps.builder()
-                        .maxCapacity(4) //最大實例數目
-                        .minCapacity(2) //最小實例數目
+                        .maxCapacity(productsServiceProps.sizing().maxCapacity()) //最大實例數目
+                        .minCapacity(productsServiceProps.sizing().minCapacity()) //最小實例數目
                         .build()
         );
+        //主要依據：每個任務平均分到的ALB請求數，服務大多在等DynamoDB，請求量比CPU更能反映負載。
+        scalableTaskCount.scaleOnRequestCount("ProductsServiceRequestCountScaling",
+                RequestCountScalingProps.builder()
+                        .targetGroup(applicationTargetGroup)
+                        .requestsPerTarget(scalingSettings.requestsPerTarget())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180)) //縮小放慢，避免來回震盪
+                        .build());
+        //CPU上限保護
         scalableTaskCount.scaleOnCpuUtilization("ProductsServiceAutoScaling",
                 CpuUtilizationScalingProps.builder()
-                        .targetUtilizationPercent(10) //只要CPU使用10%就開始擴張
-                        .scaleInCooldown(Duration.seconds(60)) //條件超過1分鐘就開始擴張
-                        .scaleOutCooldown(Duration.seconds(60)) //條件超過1分鐘就開始縮小
+                        .targetUtilizationPercent(scalingSettings.cpuCeilingPercent())
+                        .scaleOutCooldown(Duration.seconds(60))
+                        .scaleInCooldown(Duration.seconds(180))
+                        .build());
+        //p99回應時間超過門檻就階梯式擴張，只擴張不縮小，縮小交給上面的target tracking。
+        double p99Threshold = scalingSettings.p99ResponseTimeSeconds();
+        scalableTaskCount.scaleOnMetric("ProductsServiceLatencyScaling",
+                BasicStepScalingPolicyProps.builder()
+                        .metric(applicationTargetGroup.getMetrics().targetResponseTime(MetricOptions.builder()
+                                .statistic("p99")
+                                .period(Duration.minutes(1))
+                                .build()))
+                        .scalingSteps(Arrays.asList(
+                                ScalingInterval.builder().upper(p99Threshold).change(0).build(),
+                                ScalingInterval.builder().lower(p99Threshold).change(1).build(),
+                                ScalingInterval.builder().lower(p99Threshold * 2).change(3).build()))
+                        .adjustmentType(AdjustmentType.CHANGE_IN_CAPACITY)
+                        .evaluationPeriods(2)
+                        .cooldown(Duration.seconds(60))
                         .build());
     }
 
     public Topic getProductsEventsTopic() {
         return productsEventsTopic;
     }
+
+    public IRole getTaskRole() {
+        return taskRole;
+    }
+
+    public ApplicationListener getApplicationListener() {
+        return applicationListener;
+    }
+
+    public ServiceMonitoring getMonitoring() {
+        return monitoring;
+    }
 }
 
 record ProductsServiceProps(
@@ -269,6 +477,61 @@ record ProductsServiceProps(
         Cluster cluster,
         NetworkLoadBalancer networkLoadBalancer,
         ApplicationLoadBalancer applicationLoadBalancer,
-        Repository repository
+        Repository repository,
+        CpuArchitecture cpuArchitecture,
+        TaskNetworkSettings networkSettings,
+        ServiceSizing sizing,
+        JvmSettings jvmSettings,
+        ProfilingSettings profilingSettings,
+        ServiceScalingSettings scalingSettings,
+        TargetTrafficSettings trafficSettings,
+        RolloutSettings rolloutSettings,
+        LogRoutingSettings logRoutingSettings,
+        ProductsDaxSettings daxSettings,
+        CacheEndpoint cacheEndpoint,
+        ApiCacheFlushSettings cacheFlushSettings,
+        CodeIndexProjection codeIndexProjection
+) {
+}
+
+/**
+ * codeIdx的投影設定，nonKeyAttributes只在INCLUDE時使用。
+ * DynamoDB無法直接修改GSI的投影，已部署的table要改投影時，需要先移除codeIdx部署一次，再加回來部署。
+ */
+record CodeIndexProjection(
+        ProjectionType type,
+        List<String> nonKeyAttributes
+) {
+    CodeIndexProjection {
+        if (type == ProjectionType.INCLUDE && nonKeyAttributes.isEmpty()) {
+            throw new IllegalArgumentException("productsCodeIdxAttributes must not be empty when " +
+                    "productsCodeIdxProjection is INCLUDE");
+        }
+    }
+
+    /**
+     * @param type       context "productsCodeIdxProjection" 的值
+     * @param attributes context "productsCodeIdxAttributes" 的值，以逗號分隔
+     */
+    static CodeIndexProjection of(String type, String attributes) {
+        ProjectionType projectionType = Arrays.stream(ProjectionType.values())
+                .filter(value -> value.name().equals(type))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown productsCodeIdxProjection '" + type +
+                        "', expected one of " + Arrays.toString(ProjectionType.values())));
+        List<String> nonKeyAttributes = projectionType == ProjectionType.INCLUDE ?
+                Arrays.stream(attributes.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList() :
+                Collections.emptyList();
+        return new CodeIndexProjection(projectionType, nonKeyAttributes);
+    }
+}
+
+/**
+ * products table前的DAX叢集設定，enabled為false時不建立叢集。
+ */
+record ProductsDaxSettings(
+        boolean enabled,
+        String nodeType,
+        int replicationFactor
 ) {
 }
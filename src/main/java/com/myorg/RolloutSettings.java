@@ -0,0 +1,56 @@
+/**
+ * 服務部署設定，ProductsService、AuditService、InvoicesService共用。
+ * 部署時先啟動新任務再停止舊任務(min 100%、max 200%)，新版本一次全部啟動，不用分批等待；
+ * circuit breaker偵測到新任務一直啟動失敗時自動回滾到上一個版本，不必等到部署逾時。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.services.ecs.DeploymentCircuitBreaker;
+import software.amazon.awscdk.services.ecs.HealthCheck;
+
+import java.util.List;
+
+/**
+ * @param minHealthyPercent       部署期間至少保留的健康任務比例(相對desiredCount)
+ * @param maxHealthyPercent       部署期間最多可同時存在的任務比例，200表示新任務可以一次全部啟動
+ * @param appHealthCheckEnabled   應用程式容器是否使用ECS容器健康檢查，需要image中有curl；
+ *                                沒有curl時每次檢查都失敗，ECS會不斷替換任務，所以預設關閉
+ */
+record RolloutSettings(
+        int minHealthyPercent,
+        int maxHealthyPercent,
+        boolean appHealthCheckEnabled
+) {
+    RolloutSettings {
+        if (minHealthyPercent >= maxHealthyPercent) {
+            throw new IllegalArgumentException("maxHealthyPercent (" + maxHealthyPercent +
+                    ") must be greater than minHealthyPercent (" + minHealthyPercent + ")");
+        }
+    }
+
+    DeploymentCircuitBreaker circuitBreaker() {
+        return DeploymentCircuitBreaker.builder()
+                .enable(true)
+                .rollback(true)
+                .build();
+    }
+
+    /**
+     * 應用程式容器的健康檢查，與ALB使用同一個endpoint；startPeriod內的失敗不計入，讓JVM有時間啟動。
+     *
+     * @return 未開啟時為null
+     */
+    HealthCheck appHealthCheck(int port) {
+        if (!appHealthCheckEnabled) {
+            return null;
+        }
+        return HealthCheck.builder()
+                .command(List.of("CMD-SHELL", "curl -fs http://localhost:" + port + "/actuator/health || exit 1"))
+                .interval(Duration.seconds(10))
+                .timeout(Duration.seconds(5))
+                .retries(3)
+                .startPeriod(Duration.seconds(60))
+                .build();
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * 服務容器的log設定，ProductsService、AuditService、InvoicesService共用。
+ * log不應該在請求的執行緒上等待：預設使用awslogs的non-blocking模式，CloudWatch Logs變慢時寫入有上限的記憶體buffer，
+ * 而不是讓stdout阻塞；開啟FireLens時由Fluent Bit sidecar批次處理並分流。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.RemovalPolicy;
+import software.amazon.awscdk.Size;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.ecs.AwsLogDriver;
+import software.amazon.awscdk.services.ecs.AwsLogDriverMode;
+import software.amazon.awscdk.services.ecs.AwsLogDriverProps;
+import software.amazon.awscdk.services.ecs.FargateTaskDefinition;
+import software.amazon.awscdk.services.ecs.FireLensLogDriverProps;
+import software.amazon.awscdk.services.ecs.FirelensConfig;
+import software.amazon.awscdk.services.ecs.FirelensLogRouterDefinitionOptions;
+import software.amazon.awscdk.services.ecs.FirelensLogRouterType;
+import software.amazon.awscdk.services.ecs.FirelensOptions;
+import software.amazon.awscdk.services.ecs.LogDriver;
+import software.amazon.awscdk.services.ecs.LogDrivers;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.iam.Role;
+import software.amazon.awscdk.services.iam.RoleProps;
+import software.amazon.awscdk.services.iam.ServicePrincipal;
+import software.amazon.awscdk.services.kinesisfirehose.CfnDeliveryStream;
+import software.amazon.awscdk.services.kinesisfirehose.CfnDeliveryStreamProps;
+import software.amazon.awscdk.services.logs.LogGroup;
+import software.amazon.awscdk.services.logs.LogGroupProps;
+import software.amazon.awscdk.services.logs.RetentionDays;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.BucketEncryption;
+import software.amazon.awscdk.services.s3.BucketProps;
+import software.amazon.awscdk.services.s3.LifecycleRule;
+import software.amazon.awscdk.services.s3.assets.Asset;
+import software.amazon.awscdk.services.s3.assets.AssetProps;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+final class ServiceLogging {
+    /**
+     * init tag的image啟動時會從S3下載額外的Fluent Bit設定。
+     */
+    private static final String FLUENT_BIT_IMAGE = "aws-observability/aws-for-fluent-bit:init-2.32.4";
+    private static final String FLUENT_BIT_CONFIG = "src/main/resources/fluent-bit/ecommerce.conf";
+
+    private ServiceLogging() {
+    }
+
+    /**
+     * 建立應用程式容器使用的log driver，開啟FireLens時同時在task中加入log router。
+     *
+     * @param serviceName 服務名稱，同時是CloudWatch log group名稱，例如 "ProductsService"
+     */
+    static LogDriver appLogDriver(Stack stack, FargateTaskDefinition taskDefinition,
+                                  TaskNetworkSettings networkSettings, LogRoutingSettings settings,
+                                  String serviceName) {
+        LogGroup logGroup = new LogGroup(stack, "LogGroup", LogGroupProps.builder() //LogGroup可以理解為資料夾
+                .logGroupName(serviceName)
+                .removalPolicy(RemovalPolicy.DESTROY) //移除方案，如果刪除這個Stack，那此資源也會跟著被刪除。
+                .retention(RetentionDays.ONE_MONTH) //保留日誌的時間長度
+                .build());
+
+        if (!settings.fireLensEnabled()) {
+            return nonBlockingAwsLogDriver(logGroup, serviceName, settings);
+        }
+
+        CfnDeliveryStream accessLogStream = createAccessLogStream(stack, serviceName);
+        taskDefinition.addToTaskRolePolicy(PolicyStatement.Builder.create()
+                .actions(Collections.singletonList("firehose:PutRecordBatch"))
+                .resources(Collections.singletonList(accessLogStream.getAttrArn()))
+                .build());
+
+        Asset fluentBitConfig = new Asset(stack, "FluentBitConfig", AssetProps.builder()
+                .path(FLUENT_BIT_CONFIG)
+                .build());
+        fluentBitConfig.grantRead(taskDefinition.getTaskRole());
+
+        Map<String, String> routerEnvironment = new HashMap<>();
+        routerEnvironment.put("aws_fluent_bit_init_s3_1", fluentBitConfig.getS3ObjectArn());
+        routerEnvironment.put("ACCESS_LOG_DELIVERY_STREAM", accessLogStream.getRef());
+
+        //log router自己的log量很少，仍使用awslogs
+        taskDefinition.addFirelensLogRouter("LogRouter", FirelensLogRouterDefinitionOptions.builder()
+                .image(networkSettings.publicImage(FLUENT_BIT_IMAGE))
+                .containerName("logRouter")
+                .firelensConfig(FirelensConfig.builder()
+                        .type(FirelensLogRouterType.FLUENTBIT)
+                        .options(FirelensOptions.builder()
+                                .enableEcsLogMetadata(true) //加入cluster、task、container名稱
+                                .build())
+                        .build())
+                .environment(routerEnvironment)
+                .logging(nonBlockingAwsLogDriver(new LogGroup(stack, "LogRouterLogGroup", LogGroupProps.builder()
+                        .logGroupName(serviceName + "LogRouter")
+                        .removalPolicy(RemovalPolicy.DESTROY)
+                        .retention(RetentionDays.ONE_MONTH)
+                        .build()), serviceName + "LogRouter", settings))
+                .memoryReservationMiB(ServiceSizing.LOG_ROUTER_MEMORY_RESERVATION_MIB)
+                .build());
+
+        //log driver設定的是cloudwatch_logs output，經過Fluent Bit過濾後只剩WARN/ERROR，寫回原本的log group。
+        Map<String, String> outputOptions = new HashMap<>();
+        outputOptions.put("Name", "cloudwatch_logs");
+        outputOptions.put("region", stack.getRegion());
+        outputOptions.put("log_group_name", logGroup.getLogGroupName());
+        outputOptions.put("log_stream_prefix", serviceName + "/");
+        outputOptions.put("auto_create_group", "false");
+        //應用程式與log router之間的記憶體buffer(事件數)，log router來不及處理時丟棄而不是阻塞stdout
+        outputOptions.put("log-driver-buffer-limit", String.valueOf(settings.fireLensBufferLimit()));
+        logGroup.grantWrite(taskDefinition.getTaskRole());
+
+        return LogDrivers.firelens(FireLensLogDriverProps.builder()
+                .options(outputOptions)
+                .build());
+    }
+
+    private static AwsLogDriver nonBlockingAwsLogDriver(LogGroup logGroup, String streamPrefix,
+                                                        LogRoutingSettings settings) {
+        return new AwsLogDriver(AwsLogDriverProps.builder()
+                .logGroup(logGroup)
+                .streamPrefix(streamPrefix)//文件前綴名稱
+                .mode(AwsLogDriverMode.NON_BLOCKING)
+                .maxBufferSize(Size.mebibytes(settings.maxBufferSizeMiB()))
+                .build());
+    }
+
+    /**
+     * access/audit log：Firehose批次寫入S3並GZIP壓縮，90天後刪除。
+     */
+    private static CfnDeliveryStream createAccessLogStream(Stack stack, String serviceName) {
+        Bucket accessLogBucket = new Bucket(stack, "AccessLogBucket", BucketProps.builder()
+                .encryption(BucketEncryption.S3_MANAGED)
+                .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+                .enforceSsl(true)
+                .removalPolicy(RemovalPolicy.RETAIN)
+                .lifecycleRules(Collections.singletonList(LifecycleRule.builder()
+                        .expiration(Duration.days(90))
+                        .build()))
+                .build());
+
+        Role firehoseRole = new Role(stack, "AccessLogFirehoseRole", RoleProps.builder()
+                .assumedBy(new ServicePrincipal("firehose.amazonaws.com"))
+                .build());
+        accessLogBucket.grantReadWrite(firehoseRole);
+
+        CfnDeliveryStream deliveryStream = new CfnDeliveryStream(stack, "AccessLogDeliveryStream",
+                CfnDeliveryStreamProps.builder()
+                        .deliveryStreamName(serviceName.toLowerCase() + "-access-logs")
+                        .deliveryStreamType("DirectPut")
+                        .extendedS3DestinationConfiguration(
+                                CfnDeliveryStream.ExtendedS3DestinationConfigurationProperty.builder()
+                                        .bucketArn(accessLogBucket.getBucketArn())
+                                        .roleArn(firehoseRole.getRoleArn())
+                                        .prefix("access/year=!{timestamp:yyyy}/month=!{timestamp:MM}/day=!{timestamp:dd}/")
+                                        .errorOutputPrefix("errors/!{firehose:error-output-type}/" +
+                                                "year=!{timestamp:yyyy}/month=!{timestamp:MM}/day=!{timestamp:dd}/")
+                                        .bufferingHints(CfnDeliveryStream.BufferingHintsProperty.builder()
+                                                .sizeInMBs(16)
+                                                .intervalInSeconds(60)
+                                                .build())
+                                        .compressionFormat("GZIP")
+                                        .build())
+                        .build());
+        //Firehose建立時就會檢查role權限，需要等policy建立完成
+        deliveryStream.getNode().addDependency(firehoseRole);
+        return deliveryStream;
+    }
+}
+
+/**
+ * 服務的log設定
+ *
+ * @param fireLensEnabled     true時使用FireLens (Fluent Bit)：access/audit log → Firehose → S3，只有WARN/ERROR寫入CloudWatch
+ * @param maxBufferSizeMiB    awslogs non-blocking模式的記憶體buffer上限，滿了會丟棄新的log
+ * @param fireLensBufferLimit FireLens log driver在記憶體中暫存的事件數上限
+ */
+record LogRoutingSettings(
+        boolean fireLensEnabled,
+        int maxBufferSizeMiB,
+        int fireLensBufferLimit
+) {
+}
@@ -0,0 +1,17 @@
+/**
+ * 服務自動縮放政策設定，ProductsService、AuditService、InvoicesService共用。
+ * 實例數量的上下限由SizingProfile決定。
+ */
+package com.myorg;
+
+/**
+ * @param requestsPerTarget           每個任務每分鐘可承受的ALB請求數，超過就擴張
+ * @param cpuCeilingPercent           CPU上限，作為請求量不高但CPU滿載(例如GC)時的保護
+ * @param p99ResponseTimeSeconds      ALB TargetResponseTime p99超過此秒數就階梯式擴張
+ */
+record ServiceScalingSettings(
+        int requestsPerTarget,
+        int cpuCeilingPercent,
+        double p99ResponseTimeSeconds
+) {
+}
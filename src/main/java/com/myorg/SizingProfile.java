@@ -0,0 +1,96 @@
+/**
+ * 服務規格設定檔：依照環境(dev/staging/peak)集中設定各服務的task大小、容器分配、實例數量與JVM heap參數，
+ * 透過CDK context "sizingProfile" 選擇，例如 cdk deploy -c sizingProfile=peak
+ */
+package com.myorg;
+
+import java.util.Map;
+
+record SizingProfile(
+        String name,
+        ServiceSizing productsService,
+        ServiceSizing auditService,
+        ServiceSizing invoicesService
+) {
+    private static final Map<String, SizingProfile> PROFILES = Map.of(
+            //開發環境：單一實例，最省費用
+            "dev", new SizingProfile("dev",
+                    new ServiceSizing(512, 1024, 384, 896, 1, 1, 2,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0"),
+                    new ServiceSizing(512, 1024, 384, 896, 1, 1, 2,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0"),
+                    new ServiceSizing(512, 1024, 384, 896, 1, 1, 2,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0")),
+            //一般流量
+            "staging", new SizingProfile("staging",
+                    new ServiceSizing(512, 1024, 384, 896, 2, 2, 20,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0"),
+                    new ServiceSizing(512, 1024, 384, 896, 2, 2, 40,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0"),
+                    new ServiceSizing(512, 1024, 384, 896, 2, 2, 20,
+                            "-XX:InitialRAMPercentage=50.0 -XX:MaxRAMPercentage=65.0")),
+            //尖峰流量：1 vCPU讓JIT與GC有獨立的核心，heap一開始就配置完整，避免擴張時停頓。
+            "peak", new SizingProfile("peak",
+                    new ServiceSizing(1024, 2048, 896, 1920, 4, 4, 40,
+                            "-XX:InitialRAMPercentage=70.0 -XX:MaxRAMPercentage=70.0"),
+                    new ServiceSizing(1024, 2048, 896, 1920, 4, 4, 60,
+                            "-XX:InitialRAMPercentage=70.0 -XX:MaxRAMPercentage=70.0"),
+                    new ServiceSizing(1024, 2048, 896, 1920, 2, 2, 30,
+                            "-XX:InitialRAMPercentage=70.0 -XX:MaxRAMPercentage=70.0"))
+    );
+
+    static SizingProfile of(String name) {
+        SizingProfile sizingProfile = PROFILES.get(name);
+        if (sizingProfile == null) {
+            throw new IllegalArgumentException("Unknown sizingProfile '" + name + "', expected one of " +
+                    PROFILES.keySet());
+        }
+        return sizingProfile;
+    }
+}
+
+/**
+ * 單一服務的規格
+ *
+ * @param taskCpu            task的CPU單位(1024 = 1 vCPU)
+ * @param taskMemoryMiB      task的記憶體
+ * @param containerCpu       應用程式容器的CPU，剩下的留給sidecar
+ * @param containerMemoryMiB 應用程式容器保留的記憶體(soft limit)，剩下的留給sidecar
+ * @param jvmHeapOptions     JVM heap參數。容器沒有hard limit，JVM看到的是整個task的記憶體，
+ *                           百分比需要扣掉metaspace、thread stack與sidecar。
+ */
+record ServiceSizing(
+        int taskCpu,
+        int taskMemoryMiB,
+        int containerCpu,
+        int containerMemoryMiB,
+        int desiredCount,
+        int minCapacity,
+        int maxCapacity,
+        String jvmHeapOptions
+) {
+    /**
+     * sidecar(OpenTelemetry collector)固定使用的CPU與記憶體上限，平常只保留一半的記憶體，其餘可以讓應用程式使用。
+     */
+    static final int SIDECAR_CPU = 128;
+    static final int SIDECAR_MEMORY_MIB = 128;
+    static final int SIDECAR_MEMORY_RESERVATION_MIB = 64;
+    /**
+     * 開啟FireLens時log router(Fluent Bit)保留的記憶體，不設CPU，使用其他容器沒用到的部分。
+     */
+    static final int LOG_ROUTER_MEMORY_RESERVATION_MIB = 32;
+
+    ServiceSizing {
+        if (containerCpu + SIDECAR_CPU > taskCpu || containerMemoryMiB + SIDECAR_MEMORY_MIB > taskMemoryMiB) {
+            throw new IllegalArgumentException("Container and sidecar do not fit into a " + taskCpu + " CPU / " +
+                    taskMemoryMiB + " MiB task");
+        }
+        if (containerMemoryMiB + SIDECAR_MEMORY_RESERVATION_MIB + LOG_ROUTER_MEMORY_RESERVATION_MIB > taskMemoryMiB) {
+            throw new IllegalArgumentException("Container, sidecar and log router reservations exceed a " +
+                    taskMemoryMiB + " MiB task");
+        }
+        if (minCapacity > desiredCount || desiredCount > maxCapacity) {
+            throw new IllegalArgumentException("desiredCount must be between minCapacity and maxCapacity");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * SLO告警：每個API route各有可用性(5xx比例)與延遲(超過門檻的請求比例)目標，
+ * 以多視窗burn rate判斷錯誤預算是否消耗過快；另外加上DynamoDB節流與SQS積壓的輔助告警，全部發送到SNS告警topic。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.services.cloudwatch.Alarm;
+import software.amazon.awscdk.services.cloudwatch.AlarmProps;
+import software.amazon.awscdk.services.cloudwatch.AlarmRule;
+import software.amazon.awscdk.services.cloudwatch.AlarmState;
+import software.amazon.awscdk.services.cloudwatch.ComparisonOperator;
+import software.amazon.awscdk.services.cloudwatch.CompositeAlarm;
+import software.amazon.awscdk.services.cloudwatch.CompositeAlarmProps;
+import software.amazon.awscdk.services.cloudwatch.CreateAlarmOptions;
+import software.amazon.awscdk.services.cloudwatch.IMetric;
+import software.amazon.awscdk.services.cloudwatch.MathExpression;
+import software.amazon.awscdk.services.cloudwatch.MathExpressionProps;
+import software.amazon.awscdk.services.cloudwatch.MetricOptions;
+import software.amazon.awscdk.services.cloudwatch.TreatMissingData;
+import software.amazon.awscdk.services.cloudwatch.actions.SnsAction;
+import software.amazon.awscdk.services.dynamodb.Table;
+import software.amazon.awscdk.services.sns.ITopic;
+import software.amazon.awscdk.services.sqs.Queue;
+import software.constructs.Construct;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class SloAlarms extends Construct {
+    /**
+     * 多視窗burn rate：長視窗確認錯誤預算確實在快速消耗，短視窗確認問題仍在發生，兩者同時超過才告警。
+     * Fast：1小時內用掉30天預算的2%；Slow：6小時內用掉5%。
+     */
+    private static final List<BurnRateWindow> BURN_RATE_WINDOWS = List.of(
+            new BurnRateWindow("Fast", Duration.hours(1), Duration.minutes(5), 14.4),
+            new BurnRateWindow("Slow", Duration.hours(6), Duration.minutes(30), 6));
+
+    private final SnsAction alarmAction;
+
+    public SloAlarms(final Construct scope, final String id, SloAlarmsProps props) {
+        super(scope, id);
+        this.alarmAction = new SnsAction(props.alarmTopic());
+
+        for (RouteSlo routeSlo : props.routeSlos()) {
+            this.createRouteAlarms(props.apiStack(), routeSlo);
+        }
+        for (ServiceMonitoring service : props.services()) {
+            this.createServiceAlarms(service, props.queueMaxAge());
+        }
+    }
+
+    private void createRouteAlarms(ApiStack apiStack, RouteSlo routeSlo) {
+        String method = routeSlo.method();
+        String resource = routeSlo.resource();
+        //construct id不能有 "/"
+        String routeId = method + resource.replaceAll("[^A-Za-z0-9]", "");
+        String routeName = method + " " + resource;
+
+        for (BurnRateWindow window : BURN_RATE_WINDOWS) {
+            //可用性：5xx佔請求數的比例
+            this.createBurnRateAlarm(routeId + "Availability" + window.name(),
+                    routeName + " availability below " + routeSlo.availabilityObjective(), window,
+                    period -> new MathExpression(MathExpressionProps.builder()
+                            .expression("IF(requests > 0, errors / requests, 0)")
+                            .usingMetrics(Map.of(
+                                    "errors", apiStack.metricRouteServerError(method, resource, sum(period)),
+                                    "requests", apiStack.metricRouteCount(method, resource, sum(period))))
+                            .period(period)
+                            .build()),
+                    window.burnRate() * (1 - routeSlo.availabilityObjective()));
+
+            //延遲：超過門檻的請求比例，PR(0:門檻)是門檻內請求的百分比，比單看p99更能反映預算消耗的速度。
+            this.createBurnRateAlarm(routeId + "Latency" + window.name(),
+                    routeName + " latency over " + routeSlo.latencyThresholdMs() + " ms", window,
+                    period -> new MathExpression(MathExpressionProps.builder()
+                            .expression("(100 - withinThreshold) / 100")
+                            .usingMetrics(Map.of(
+                                    "withinThreshold", apiStack.metricRouteLatency(method, resource,
+                                            MetricOptions.builder()
+                                                    .statistic("PR(0:" + routeSlo.latencyThresholdMs() + ")")
+                                                    .period(period)
+                                                    .build())))
+                            .period(period)
+                            .build()),
+                    window.burnRate() * (1 - routeSlo.latencyObjective()));
+        }
+    }
+
+    /**
+     * 長、短視窗各一個告警(不發送通知)，由CompositeAlarm在兩者都ALARM時發送。
+     */
+    private void createBurnRateAlarm(String id, String description, BurnRateWindow window,
+                                     Function<Duration, IMetric> badRatio, double threshold) {
+        Alarm longWindowAlarm = this.ratioAlarm(id + "Long", badRatio.apply(window.longWindow()), threshold);
+        Alarm shortWindowAlarm = this.ratioAlarm(id + "Short", badRatio.apply(window.shortWindow()), threshold);
+
+        CompositeAlarm compositeAlarm = new CompositeAlarm(this, id, CompositeAlarmProps.builder()
+                .alarmDescription(window.name() + " burn: " + description)
+                .alarmRule(AlarmRule.allOf(
+                        AlarmRule.fromAlarm(longWindowAlarm, AlarmState.ALARM),
+                        AlarmRule.fromAlarm(shortWindowAlarm, AlarmState.ALARM)))
+                .build());
+        compositeAlarm.addAlarmAction(this.alarmAction);
+    }
+
+    private Alarm ratioAlarm(String id, IMetric metric, double threshold) {
+        return new Alarm(this, id, AlarmProps.builder()
+                .metric(metric)
+                .threshold(threshold)
+                .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                .evaluationPeriods(1)
+                .treatMissingData(TreatMissingData.NOT_BREACHING) //沒有流量時不算違反
+                .build());
+    }
+
+    private void createServiceAlarms(ServiceMonitoring service, Duration queueMaxAge) {
+        //DynamoDB被節流時，請求會在SDK內重試，延遲上升會比5xx更早出現。
+        for (Table table : service.tables()) {
+            MathExpression throttles = new MathExpression(MathExpressionProps.builder()
+                    .expression("reads + writes")
+                    .usingMetrics(Map.of(
+                            "reads", table.metric("ReadThrottleEvents", sum(Duration.minutes(1))),
+                            "writes", table.metric("WriteThrottleEvents", sum(Duration.minutes(1)))))
+                    .period(Duration.minutes(1))
+                    .build());
+            throttles.createAlarm(this, table.getNode().getId() + "Throttles", CreateAlarmOptions.builder()
+                            .alarmDescription(service.serviceName() + " " + table.getNode().getId() + " is throttled")
+                            .threshold(0)
+                            .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                            .evaluationPeriods(5)
+                            .datapointsToAlarm(3)
+                            .treatMissingData(TreatMissingData.NOT_BREACHING)
+                            .build())
+                    .addAlarmAction(this.alarmAction);
+        }
+
+        //佇列積壓：最舊的訊息等待太久，代表消費者跟不上
+        for (Queue queue : service.queues()) {
+            queue.metricApproximateAgeOfOldestMessage(MetricOptions.builder()
+                            .statistic("Maximum")
+                            .period(Duration.minutes(1))
+                            .build())
+                    .createAlarm(this, queue.getNode().getId() + "Age", CreateAlarmOptions.builder()
+                            .alarmDescription(service.serviceName() + " " + queue.getNode().getId() +
+                                    " backlog older than " + queueMaxAge.toSeconds() + " s")
+                            .threshold(queueMaxAge.toSeconds())
+                            .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                            .evaluationPeriods(3)
+                            .treatMissingData(TreatMissingData.NOT_BREACHING)
+                            .build())
+                    .addAlarmAction(this.alarmAction);
+        }
+
+        //DLQ有任何訊息都需要人工處理
+        for (Queue deadLetterQueue : service.deadLetterQueues()) {
+            deadLetterQueue.metricApproximateNumberOfMessagesVisible(MetricOptions.builder()
+                            .statistic("Maximum")
+                            .period(Duration.minutes(5))
+                            .build())
+                    .createAlarm(this, deadLetterQueue.getNode().getId() + "Depth", CreateAlarmOptions.builder()
+                            .alarmDescription(service.serviceName() + " " + deadLetterQueue.getNode().getId() +
+                                    " has messages")
+                            .threshold(0)
+                            .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                            .evaluationPeriods(1)
+                            .treatMissingData(TreatMissingData.NOT_BREACHING)
+                            .build())
+                    .addAlarmAction(this.alarmAction);
+        }
+    }
+
+    private static MetricOptions sum(Duration period) {
+        return MetricOptions.builder()
+                .statistic("Sum")
+                .period(period)
+                .build();
+    }
+
+    private record BurnRateWindow(String name, Duration longWindow, Duration shortWindow, double burnRate) {
+    }
+}
+
+record SloAlarmsProps(
+        ApiStack apiStack,
+        List<RouteSlo> routeSlos,
+        List<ServiceMonitoring> services,
+        Duration queueMaxAge,
+        ITopic alarmTopic
+) {
+}
+
+/**
+ * 單一API route的SLO
+ *
+ * @param resource              API的路徑，例如 "/products/{id}"
+ * @param availabilityObjective 非5xx回應的比例目標，例如0.999
+ * @param latencyObjective      在latencyThresholdMs內回應的比例目標，例如0.99
+ */
+record RouteSlo(
+        String method,
+        String resource,
+        double availabilityObjective,
+        double latencyObjective,
+        int latencyThresholdMs
+) {
+}
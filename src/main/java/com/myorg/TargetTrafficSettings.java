@@ -0,0 +1,63 @@
+/**
+ * 負載平衡器目標的流量設定，ProductsService、AuditService、InvoicesService共用。
+ * 新任務通過健康檢查時JIT還沒暖機，直接分到完整流量會讓每次擴張/部署的前幾分鐘p99升高；
+ * ALB的slow start讓新目標的流量在時間窗內線性增加。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.services.elasticloadbalancingv2.NetworkTargetGroup;
+import software.amazon.awscdk.services.elasticloadbalancingv2.TargetGroupLoadBalancingAlgorithmType;
+
+/**
+ * @param slowStartSeconds               新目標流量逐步增加的時間(30~900秒)，0表示關閉
+ * @param loadBalancingAlgorithm         ALB演算法：ROUND_ROBIN或LEAST_OUTSTANDING_REQUESTS。
+ *                                       ALB不支援slow start搭配LEAST_OUTSTANDING_REQUESTS，兩者只能擇一
+ * @param healthCheckGracePeriodSeconds  任務啟動後ECS忽略ALB/NLB健康檢查的時間，避免JVM啟動中就被判定不健康而替換
+ * @param deregistrationDelaySeconds     目標移除前等待進行中請求完成的時間，ALB與NLB共用
+ * @param nlbConnectionTermination       NLB在deregistration delay結束時主動關閉剩下的連線
+ * @param nlbCrossZoneEnabled            NLB目標群組跨AZ分配，避免各AZ任務數不平均時單一AZ的任務過載
+ */
+record TargetTrafficSettings(
+        int slowStartSeconds,
+        TargetGroupLoadBalancingAlgorithmType loadBalancingAlgorithm,
+        int healthCheckGracePeriodSeconds,
+        int deregistrationDelaySeconds,
+        boolean nlbConnectionTermination,
+        boolean nlbCrossZoneEnabled
+) {
+    TargetTrafficSettings {
+        if (slowStartSeconds != 0 && (slowStartSeconds < 30 || slowStartSeconds > 900)) {
+            throw new IllegalArgumentException("slowStartSeconds must be 0 or between 30 and 900: " +
+                    slowStartSeconds);
+        }
+        if (slowStartSeconds != 0 && loadBalancingAlgorithm != TargetGroupLoadBalancingAlgorithmType.ROUND_ROBIN) {
+            throw new IllegalArgumentException("ALB slow start only works with ROUND_ROBIN, not " +
+                    loadBalancingAlgorithm);
+        }
+    }
+
+    /**
+     * @return 關閉時為null，ALB不接受0秒
+     */
+    Duration slowStart() {
+        return slowStartSeconds == 0 ? null : Duration.seconds(slowStartSeconds);
+    }
+
+    Duration healthCheckGracePeriod() {
+        return Duration.seconds(healthCheckGracePeriodSeconds);
+    }
+
+    Duration deregistrationDelay() {
+        return Duration.seconds(deregistrationDelaySeconds);
+    }
+
+    /**
+     * NLB目標群組的屬性，L2 props沒有提供，直接設定target group attribute。
+     */
+    void applyTo(NetworkTargetGroup networkTargetGroup) {
+        networkTargetGroup.setAttribute("deregistration_delay.connection_termination.enabled",
+                String.valueOf(nlbConnectionTermination));
+        networkTargetGroup.setAttribute("load_balancing.cross_zone.enabled", String.valueOf(nlbCrossZoneEnabled));
+    }
+}
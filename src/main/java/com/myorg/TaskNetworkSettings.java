@@ -0,0 +1,75 @@
+/**
+ * Fargate任務的網路設定，ProductsService、AuditService、InvoicesService共用。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.ArnComponents;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.ec2.SubnetSelection;
+import software.amazon.awscdk.services.ec2.SubnetType;
+import software.amazon.awscdk.services.ecs.ContainerImage;
+import software.amazon.awscdk.services.iam.IRole;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @param privateSubnets      true時任務放在private isolated subnet，透過VPC endpoint呼叫AWS API，不配置公有IP。
+ * @param publicImageRegistry sidecar等公開image的registry。private subnet無法連到public.ecr.aws，
+ *                            改用ECRStack中的pull through cache。
+ */
+record TaskNetworkSettings(
+        boolean privateSubnets,
+        String publicImageRegistry
+) {
+    static final String PUBLIC_ECR_REGISTRY = "public.ecr.aws";
+
+    SubnetSelection subnets() {
+        return SubnetSelection.builder()
+                .subnetType(privateSubnets ? SubnetType.PRIVATE_ISOLATED : SubnetType.PUBLIC)
+                .build();
+    }
+
+    boolean assignPublicIp() {
+        return !privateSubnets;
+    }
+
+    /**
+     * private isolated subnet沒有NAT，只能透過VPC endpoint呼叫有建立endpoint的AWS服務。
+     * 公開的API Gateway(execute-api)無法透過VPC endpoint呼叫(execute-api endpoint只能連private API)，
+     * 所以ProductsService無法清除API Gateway快取，只能依TTL過期。
+     */
+    boolean publicEndpointsReachable() {
+        return !privateSubnets;
+    }
+
+    /**
+     * @param repositoryAndTag public.ecr.aws之後的路徑，例如 "xray/aws-xray-daemon:latest"
+     */
+    ContainerImage publicImage(String repositoryAndTag) {
+        return ContainerImage.fromRegistry(publicImageRegistry + "/" + repositoryAndTag);
+    }
+
+    /**
+     * 透過pull through cache拉取image時，第一次會由execution role建立快取repository並匯入image。
+     */
+    void grantPublicImagePull(Stack stack, IRole executionRole) {
+        if (PUBLIC_ECR_REGISTRY.equals(publicImageRegistry)) {
+            return;
+        }
+        executionRole.addToPrincipalPolicy(PolicyStatement.Builder.create()
+                .actions(Arrays.asList("ecr:BatchGetImage", "ecr:GetDownloadUrlForLayer",
+                        "ecr:BatchCheckLayerAvailability", "ecr:BatchImportUpstreamImage", "ecr:CreateRepository"))
+                .resources(Collections.singletonList(stack.formatArn(ArnComponents.builder()
+                        .service("ecr")
+                        .resource("repository")
+                        .resourceName(ECRStack.PUBLIC_ECR_CACHE_PREFIX + "/*")
+                        .build())))
+                .build());
+        executionRole.addToPrincipalPolicy(PolicyStatement.Builder.create()
+                .actions(Collections.singletonList("ecr:GetAuthorizationToken"))
+                .resources(Collections.singletonList("*"))
+                .build());
+    }
+}
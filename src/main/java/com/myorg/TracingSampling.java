@@ -0,0 +1,126 @@
+/**
+ * X-Ray集中式取樣規則，ProductsService、AuditService、InvoicesService共用。
+ * 規則由CDK管理，SDK透過collector(awsxray receiver的sampling proxy)定期取得，調整取樣率不需要重新部署服務；
+ * 每個規則每秒先取reservoirSize筆，超過的部分再依照fixedRate取樣，trace數量不會隨著流量線性增加。
+ */
+package com.myorg;
+
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.xray.CfnSamplingRule;
+import software.amazon.awscdk.services.xray.CfnSamplingRuleProps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class TracingSampling {
+    /**
+     * 沒有符合任何route規則時使用的規則，priority最大(最後比對)。
+     */
+    private static final int DEFAULT_PRIORITY = 9000;
+
+    private TracingSampling() {
+    }
+
+    /**
+     * 建立服務的取樣規則，最後加上該服務的預設規則。
+     * 規則名稱在account/region內必須唯一，加上stack名稱前綴："{stackName}-{route name}"，
+     * 同一個帳號部署多套環境時不會互相衝突。
+     *
+     * @param serviceName X-Ray上的服務名稱(OTEL_SERVICE_NAME)
+     * @return 規則名稱，依照priority排序
+     */
+    static List<String> addRules(Stack stack, String serviceName, List<SamplingRoute> routes,
+                                 SamplingRoute defaultRoute) {
+        List<String> ruleNames = new ArrayList<>();
+        for (SamplingRoute route : routes) {
+            ruleNames.add(addRule(stack, serviceName, route, route.priority()));
+        }
+        ruleNames.add(addRule(stack, serviceName, defaultRoute, DEFAULT_PRIORITY));
+        return ruleNames;
+    }
+
+    private static String addRule(Stack stack, String serviceName, SamplingRoute route, int priority) {
+        String ruleName = stack.getStackName() + "-" + route.name();
+        if (ruleName.length() > SamplingRoute.MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Sampling rule name '" + ruleName + "' is longer than " +
+                    SamplingRoute.MAX_NAME_LENGTH + " characters, use a shorter route name");
+        }
+        new CfnSamplingRule(stack, route.name() + "SamplingRule", CfnSamplingRuleProps.builder()
+                .samplingRule(CfnSamplingRule.SamplingRuleProperty.builder()
+                        .ruleName(ruleName)
+                        .priority(priority)
+                        .fixedRate(route.fixedRate())
+                        .reservoirSize(route.reservoirSize())
+                        .serviceName(serviceName)
+                        .serviceType("*")
+                        .host("*")
+                        .httpMethod(route.httpMethod())
+                        .urlPath(route.urlPath())
+                        .resourceArn("*")
+                        .attributes(route.attributes().isEmpty() ? null : route.attributes())
+                        .version(1)
+                        .build())
+                .build());
+        return ruleName;
+    }
+
+    /**
+     * 應用程式容器的取樣環境變數：使用X-Ray遠端取樣，透過同一個task中的collector取得規則。
+     * SDK依照serviceName與規則比對，AWS_XRAY_SAMPLING_RULES只是說明用，方便在log或除錯時對照套用中的規則。
+     *
+     * @param ruleNames addRules回傳的規則名稱
+     */
+    static Map<String, String> environment(List<String> ruleNames) {
+        Map<String, String> environment = new HashMap<>();
+        environment.put("OTEL_TRACES_SAMPLER", "xray");
+        environment.put("OTEL_TRACES_SAMPLER_ARG", "endpoint=http://localhost:" +
+                OtelCollectorSidecar.XRAY_DAEMON_PORT + ",polling_interval=300");
+        environment.put("AWS_XRAY_SAMPLING_RULES", String.join(",", ruleNames));
+        return environment;
+    }
+}
+
+/**
+ * 單一route的取樣規則
+ *
+ * @param name          規則名稱後綴，加上stack名稱前綴後最多32個字元
+ * @param urlPath       應用程式收到的路徑，可以使用 * 與 ? 萬用字元，例如 "/api/products/*"
+ * @param attributes    符合span attribute才套用，例如 eventType=PRODUCT_FAILURE，不需要時為空Map
+ * @param fixedRate     超過reservoir後的取樣比例(0~1)
+ * @param reservoirSize 每秒固定取樣的數量
+ * @param priority      數字越小越先比對
+ */
+record SamplingRoute(
+        String name,
+        String httpMethod,
+        String urlPath,
+        Map<String, String> attributes,
+        double fixedRate,
+        int reservoirSize,
+        int priority
+) {
+    static final int MAX_NAME_LENGTH = 32;
+
+    SamplingRoute {
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Sampling rule name '" + name + "' is longer than " +
+                    MAX_NAME_LENGTH + " characters");
+        }
+    }
+
+    static SamplingRoute route(String name, String httpMethod, String urlPath, double fixedRate,
+                               int reservoirSize, int priority) {
+        return new SamplingRoute(name, httpMethod, urlPath, Collections.emptyMap(), fixedRate, reservoirSize,
+                priority);
+    }
+
+    /**
+     * 服務的預設規則，priority由TracingSampling指定
+     */
+    static SamplingRoute fallback(String name, double fixedRate, int reservoirSize) {
+        return new SamplingRoute(name, "*", "*", Collections.emptyMap(), fixedRate, reservoirSize, 0);
+    }
+}
@@ -5,10 +5,19 @@ package com.myorg;
 
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.services.ec2.GatewayVpcEndpointAwsService;
+import software.amazon.awscdk.services.ec2.GatewayVpcEndpointOptions;
+import software.amazon.awscdk.services.ec2.InterfaceVpcEndpointAwsService;
+import software.amazon.awscdk.services.ec2.InterfaceVpcEndpointOptions;
+import software.amazon.awscdk.services.ec2.SubnetSelection;
+import software.amazon.awscdk.services.ec2.SubnetType;
 import software.amazon.awscdk.services.ec2.Vpc;
 import software.amazon.awscdk.services.ec2.VpcProps;
 import software.constructs.Construct;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class VpcStack extends Stack {
     private final Vpc vpc;
 
@@ -21,6 +30,36 @@ public class VpcStack extends Stack {
                 //DO NOT DO THIS IN PROD!! 只是因為練習而節省建立基礎設施的費用，所以特地設定此參數為0。
                 .natGateways(0)
                 .build());
+
+        /*
+        VPC Endpoint：沒有NAT時，private isolated subnet中的任務透過endpoint呼叫AWS API，
+        流量不經過公網，延遲較低也較穩定。
+        Gateway endpoint(DynamoDB、S3)不收費，ECR的image layer存放在S3，所以也需要S3。
+         */
+        this.vpc.addGatewayEndpoint("DynamoDbEndpoint", GatewayVpcEndpointOptions.builder()
+                .service(GatewayVpcEndpointAwsService.DYNAMODB)
+                .build());
+        this.vpc.addGatewayEndpoint("S3Endpoint", GatewayVpcEndpointOptions.builder()
+                .service(GatewayVpcEndpointAwsService.S3)
+                .build());
+
+        Map<String, InterfaceVpcEndpointAwsService> interfaceEndpoints = new LinkedHashMap<>();
+        interfaceEndpoints.put("SnsEndpoint", InterfaceVpcEndpointAwsService.SNS);
+        interfaceEndpoints.put("SqsEndpoint", InterfaceVpcEndpointAwsService.SQS);
+        interfaceEndpoints.put("EcrApiEndpoint", InterfaceVpcEndpointAwsService.ECR);
+        interfaceEndpoints.put("EcrDockerEndpoint", InterfaceVpcEndpointAwsService.ECR_DOCKER);
+        interfaceEndpoints.put("CloudWatchLogsEndpoint", InterfaceVpcEndpointAwsService.CLOUDWATCH_LOGS);
+        interfaceEndpoints.put("XRayEndpoint", InterfaceVpcEndpointAwsService.XRAY);
+        interfaceEndpoints.put("FirehoseEndpoint", InterfaceVpcEndpointAwsService.KINESIS_FIREHOSE); //FireLens access log
+        interfaceEndpoints.put("CodeGuruProfilerEndpoint", InterfaceVpcEndpointAwsService.CODEGURU_PROFILER);
+        interfaceEndpoints.forEach((endpointId, service) ->
+                this.vpc.addInterfaceEndpoint(endpointId, InterfaceVpcEndpointOptions.builder()
+                        .service(service)
+                        .privateDnsEnabled(true) //SDK使用原本的endpoint名稱即可解析到VPC內部
+                        .subnets(SubnetSelection.builder()
+                                .subnetType(SubnetType.PRIVATE_ISOLATED)
+                                .build())
+                        .build()));
     }
 
     public Vpc getVpc() {
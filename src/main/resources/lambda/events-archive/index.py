@@ -0,0 +1,36 @@
+# TTL到期被DynamoDB刪除的events，轉成一般JSON後送到Firehose，由Firehose轉成Parquet寫入S3。
+# 只送出Glue table有定義的欄位(ARCHIVE_COLUMNS，由CDK傳入)，欄位名稱轉成小寫與Glue schema一致。
+import json
+import os
+from decimal import Decimal
+
+import boto3
+from boto3.dynamodb.types import TypeDeserializer
+
+STREAM_NAME = os.environ['DELIVERY_STREAM_NAME']
+ARCHIVE_COLUMNS = set(os.environ['ARCHIVE_COLUMNS'].split(','))
+firehose = boto3.client('firehose')
+deserializer = TypeDeserializer()
+
+
+def default(value):
+    if isinstance(value, Decimal):
+        return int(value) if value == value.to_integral_value() else float(value)
+    raise TypeError(value)
+
+
+def handler(event, context):
+    records = []
+    for record in event['Records']:
+        image = record['dynamodb'].get('OldImage')
+        if not image:
+            continue
+        item = {key.lower(): deserializer.deserialize(value) for key, value in image.items()
+                if key.lower() in ARCHIVE_COLUMNS}
+        records.append({'Data': (json.dumps(item, default=default) + '\n').encode()})
+
+    for start in range(0, len(records), 500):
+        response = firehose.put_record_batch(DeliveryStreamName=STREAM_NAME,
+                                             Records=records[start:start + 500])
+        if response['FailedPutCount'] > 0:
+            raise RuntimeError('%d records were not archived' % response['FailedPutCount'])
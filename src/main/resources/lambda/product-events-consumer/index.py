@@ -0,0 +1,87 @@
+# product-events的批次消費者：把SQS批次中的事件以BatchWriteItem(每次最多25筆)寫入events table，
+# 寫入失敗的訊息回報為batchItemFailures，只有這些訊息會回到佇列重試，超過maxReceiveCount後進入DLQ。
+# key格式由CDK(EventsTableKeys)透過環境變數傳入，與AuditService使用同一份定義。
+import json
+import os
+import time
+import zlib
+
+import boto3
+
+TABLE_NAME = os.environ['EVENTS_DDB']
+SHARD_COUNT = int(os.environ['EVENTS_DDB_SHARD_COUNT'])
+PK_FORMAT = os.environ['EVENTS_DDB_PK_FORMAT']
+SK_FORMAT = os.environ['EVENTS_DDB_SK_FORMAT']
+EVENT_TYPE_SHARD_FORMAT = os.environ['EVENTS_DDB_EVENT_TYPE_SHARD_FORMAT']
+EVENT_TYPE_SHARD_ATTRIBUTE = os.environ['EVENTS_DDB_EVENT_TYPE_SHARD_ATTRIBUTE']
+TTL_SECONDS = int(os.environ['EVENTS_TTL_SECONDS'])
+MAX_ATTEMPTS = 3
+dynamodb = boto3.client('dynamodb')
+
+
+def to_item(record):
+    notification = json.loads(record['body'])
+    envelope = json.loads(notification['Message'])
+    data = json.loads(envelope['data'])
+    timestamp = int(record['attributes']['SentTimestamp'])
+    event_type = envelope['eventType']
+    shard = zlib.crc32(notification['MessageId'].encode()) % SHARD_COUNT
+    return {
+        'pk': {'S': PK_FORMAT.format(code=data['code'], shard=shard)},
+        'shard': {'N': str(shard)},
+        'sk': {'S': SK_FORMAT.format(eventType=event_type, createdAt=timestamp,
+                                     messageId=notification['MessageId'])},
+        'eventType': {'S': event_type},
+        EVENT_TYPE_SHARD_ATTRIBUTE: {'S': EVENT_TYPE_SHARD_FORMAT.format(eventType=event_type, shard=shard)},
+        'createdAt': {'N': str(timestamp)},
+        'messageId': {'S': notification['MessageId']},
+        'info': {'S': envelope['data']},
+        'ttl': {'N': str(int(time.time()) + TTL_SECONDS)},
+    }
+
+
+def key_of(item):
+    return item['pk']['S'], item['sk']['S']
+
+
+def write(items):
+    request = [{'PutRequest': {'Item': item}} for item in items]
+    for attempt in range(MAX_ATTEMPTS):
+        response = dynamodb.batch_write_item(RequestItems={TABLE_NAME: request})
+        request = response.get('UnprocessedItems', {}).get(TABLE_NAME, [])
+        if not request:
+            return set()
+        time.sleep(0.05 * 2 ** attempt)
+    return {key_of(entry['PutRequest']['Item']) for entry in request}
+
+
+def handler(event, context):
+    failures = []
+    message_ids = {}
+    items = {}
+    for record in event['Records']:
+        try:
+            item = to_item(record)
+        except (KeyError, TypeError, ValueError):
+            failures.append(record['messageId'])
+            continue
+        key = key_of(item)
+        # 同一則SNS訊息重複送達時內容相同，合併成一次寫入；
+        # 不同訊息卻得到相同的key時不能覆蓋，回報失敗讓它在下一批重試(BatchWriteItem不接受重複的key)。
+        if key in items and items[key]['messageId'] != item['messageId']:
+            failures.append(record['messageId'])
+            continue
+        items[key] = item
+        message_ids.setdefault(key, []).append(record['messageId'])
+
+    keys = list(items)
+    for start in range(0, len(keys), 25):
+        chunk = keys[start:start + 25]
+        try:
+            failed = write([items[key] for key in chunk])
+        except Exception:
+            failed = set(chunk)
+        for key in failed:
+            failures.extend(message_ids[key])
+
+    return {'batchItemFailures': [{'itemIdentifier': message_id} for message_id in failures]}
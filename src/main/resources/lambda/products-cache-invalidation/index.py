@@ -0,0 +1,38 @@
+# products table有異動時，由DynamoDB Stream觸發，刪除共用快取中對應的key，不必等TTL到期。
+# key格式由CDK(ProductsCacheKeys)透過環境變數傳入，與ProductsService使用同一份定義。
+import os
+import socket
+import ssl
+
+HOST = os.environ['CACHE_HOST']
+PORT = int(os.environ['CACHE_PORT'])
+BY_ID_FORMAT = os.environ['CACHE_PRODUCT_BY_ID_KEY_FORMAT']
+BY_CODE_FORMAT = os.environ['CACHE_PRODUCT_BY_CODE_KEY_FORMAT']
+LIST_KEY = os.environ['CACHE_PRODUCTS_LIST_KEY']
+
+
+def command(*args):
+    out = b'*%d\r\n' % len(args)
+    for arg in args:
+        data = arg.encode()
+        out += b'$%d\r\n%s\r\n' % (len(data), data)
+    return out
+
+
+def handler(event, context):
+    keys = {LIST_KEY}
+    for record in event['Records']:
+        for image in ('Keys', 'OldImage', 'NewImage'):
+            item = record['dynamodb'].get(image) or {}
+            if 'id' in item:
+                keys.add(BY_ID_FORMAT.format(id=item['id']['S']))
+            if 'code' in item:
+                keys.add(BY_CODE_FORMAT.format(code=item['code']['S']))
+
+    tls = ssl.create_default_context()
+    with socket.create_connection((HOST, PORT), timeout=5) as raw:
+        with tls.wrap_socket(raw, server_hostname=HOST) as conn:
+            conn.sendall(command('UNLINK', *sorted(keys)))
+            reply = conn.recv(64)
+            if not reply.startswith(b':'):
+                raise RuntimeError(reply)
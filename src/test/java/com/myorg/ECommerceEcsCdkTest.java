@@ -1,26 +1,241 @@
-// package com.myorg;
+package com.myorg;
 
-// import software.amazon.awscdk.App;
-// import software.amazon.awscdk.assertions.Template;
-// import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awscdk.App;
+import software.amazon.awscdk.AppProps;
+import software.amazon.awscdk.CfnElement;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.assertions.Match;
+import software.amazon.awscdk.assertions.Template;
+import software.amazon.awscdk.services.applicationautoscaling.ScalingSchedule;
+import software.amazon.awscdk.services.dynamodb.ProjectionType;
+import software.amazon.awscdk.services.elasticloadbalancingv2.TargetGroupLoadBalancingAlgorithmType;
 
-// import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
-// import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
 
-// example test. To run these tests, uncomment this file, along with the
-// example resource in java/src/main/java/com/myorg/ECommerceEcsCdkStack.java
-// public class ECommerceEcsCdkTest {
+public class ECommerceEcsCdkTest {
 
-//     @Test
-//     public void testStack() throws IOException {
-//         App app = new App();
-//         ECommerceEcsCdkStack stack = new ECommerceEcsCdkStack(app, "test");
+    private static App app(Map<String, Object> context) {
+        App app = new App(AppProps.builder().context(context).build());
+        ECommerceEcsCdkApp.createStacks(app);
+        return app;
+    }
 
-//         Template template = Template.fromStack(stack);
+    private static Stack stack(App app, String id) {
+        return (Stack) app.getNode().findChild(id);
+    }
 
-//         template.hasResourceProperties("AWS::SQS::Queue", new HashMap<String, Number>() {{
-//           put("VisibilityTimeout", 300);
-//         }});
-//     }
-// }
+    private static ServiceSizing sizing(int minCapacity, int maxCapacity) {
+        return new ServiceSizing(512, 1024, 384, 896, minCapacity, minCapacity, maxCapacity, "");
+    }
+
+    @Test
+    public void sizingProfileOfReturnsNamedProfile() {
+        SizingProfile peak = SizingProfile.of("peak");
+
+        assertEquals("peak", peak.name());
+        assertEquals(30, peak.invoicesService().maxCapacity());
+    }
+
+    @Test
+    public void sizingProfileOfRejectsUnknownName() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> SizingProfile.of("prod"));
+
+        assertTrue(exception.getMessage().contains("sizingProfile"));
+    }
+
+    @Test
+    public void serviceSizingRejectsContainerAndSidecarLargerThanTask() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ServiceSizing(512, 1024, 448, 896, 1, 1, 2, ""));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ServiceSizing(512, 1024, 384, 960, 1, 1, 2, ""));
+    }
+
+    @Test
+    public void serviceSizingRejectsDesiredCountOutsideCapacity() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ServiceSizing(512, 1024, 384, 896, 3, 1, 2, ""));
+    }
+
+    @Test
+    public void auditBacklogScalingIsTargetTracking() {
+        Template template = Template.fromStack(stack(app(Collections.emptyMap()), "AuditService"));
+
+        template.hasResourceProperties("AWS::ApplicationAutoScaling::ScalingPolicy", Map.of(
+                "PolicyName", "AuditServiceBacklogScaling",
+                "PolicyType", "TargetTrackingScaling",
+                "TargetTrackingScalingPolicyConfiguration", Map.of(
+                        "CustomizedMetricSpecification", Map.of(
+                                "Metrics", Match.arrayWith(List.of(Match.objectLike(Map.of(
+                                        "Id", "backlogPerTask",
+                                        "ReturnData", true))))))));
+    }
+
+    @Test
+    public void scheduledCapacityStaysWithinSizingProfile() {
+        ScalingSchedule scaleUp = new ScheduledCapacity("ScaleUp", "cron(30 23 L * ? *)", 8, null)
+                .scalingSchedule(sizing(1, 2));
+        assertEquals(2, scaleUp.getMinCapacity().intValue());
+        assertEquals(2, scaleUp.getMaxCapacity().intValue());
+
+        ScalingSchedule scaleDown = new ScheduledCapacity("ScaleDown", "cron(0 6 1 * ? *)", null, null)
+                .scalingSchedule(sizing(2, 30));
+        assertEquals(2, scaleDown.getMinCapacity().intValue());
+        assertEquals(30, scaleDown.getMaxCapacity().intValue());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new ScheduledCapacity("ScaleUp", "cron(30 23 L * ? *)", 8, 40).scalingSchedule(sizing(2, 30)));
+    }
+
+    @Test
+    public void apiCacheFlushSettingsEnvironment() {
+        assertEquals(Map.of("AWS_API_CACHE_FLUSH_ENABLED", "false"),
+                new ApiCacheFlushSettings(false, true).environment());
+
+        Map<String, String> environment = new ApiCacheFlushSettings(true, true).environment();
+        assertEquals(ApiCacheFlushSettings.STAGE_URL_PARAMETER_NAME, environment.get("AWS_API_STAGE_URL_PARAMETER"));
+        assertEquals(ApiStack.FIRST_PARTY_API_KEY_SECRET_NAME, environment.get("AWS_API_KEY_SECRET_NAME"));
+    }
+
+    @Test
+    public void cacheFlushPermissionsDoNotMakeProductsServiceDependOnApi() {
+        App app = app(Map.of("privateTaskSubnets", "false", "apiUsagePlanEnabled", "true"));
+        Template template = Template.fromStack(stack(app, "Api"));
+
+        template.resourceCountIs("AWS::SSM::Parameter", 1);
+        template.hasResourceProperties("AWS::IAM::Policy", Map.of(
+                "PolicyDocument", Map.of("Statement", Match.arrayWith(List.of(
+                        Match.objectLike(Map.of("Action", List.of("ssm:GetParameter", "ssm:GetParameters"))),
+                        Match.objectLike(Map.of("Action",
+                                List.of("secretsmanager:GetSecretValue", "secretsmanager:DescribeSecret"))))))));
+        assertFalse(stack(app, "ProductsService").getDependencies().contains(stack(app, "Api")));
+    }
+
+    @Test
+    public void productEventsQueueOutlastsLambdaConsumerRetries() {
+        Template template = Template.fromStack(stack(app(Map.of("auditLambdaConsumerEnabled", "true")),
+                "AuditService"));
+
+        template.hasResourceProperties("AWS::Lambda::Function", Map.of(
+                "FunctionName", "product-events-consumer",
+                "Timeout", 20));
+        template.hasResourceProperties("AWS::SQS::Queue", Map.of(
+                "QueueName", "product-events",
+                "VisibilityTimeout", 120));
+    }
+
+    @Test
+    public void eventsTableHasNoShardIndex() {
+        Template template = Template.fromStack(stack(app(Collections.emptyMap()), "AuditService"));
+
+        template.hasResourceProperties("AWS::DynamoDB::Table", Map.of(
+                "TableName", "events",
+                "GlobalSecondaryIndexes", Match.not(Match.arrayWith(List.of(
+                        Match.objectLike(Map.of("IndexName", "shardIdx")))))));
+    }
+
+    @Test
+    public void eventsTableHasShardedEventTypeIndex() {
+        Template template = Template.fromStack(stack(app(Collections.emptyMap()), "AuditService"));
+
+        template.hasResourceProperties("AWS::DynamoDB::Table", Map.of(
+                "TableName", "events",
+                "GlobalSecondaryIndexes", List.of(Map.of(
+                        "IndexName", "eventTypeIdx",
+                        "KeySchema", List.of(
+                                Map.of("AttributeName", EventsTableKeys.EVENT_TYPE_SHARD_ATTRIBUTE, "KeyType", "HASH"),
+                                Map.of("AttributeName", EventsTableKeys.CREATED_AT_ATTRIBUTE, "KeyType", "RANGE")),
+                        "Projection", Map.of(
+                                "ProjectionType", "INCLUDE",
+                                "NonKeyAttributes", List.of("eventType", "messageId", "info"))))));
+    }
+
+    @Test
+    public void eventTypeIndexCanBeDeployedSeparately() {
+        Template template = Template.fromStack(stack(app(Map.of("auditEventTypeIndexEnabled", "false")),
+                "AuditService"));
+
+        template.hasResourceProperties("AWS::DynamoDB::Table", Map.of(
+                "TableName", "events",
+                "GlobalSecondaryIndexes", Match.absent()));
+    }
+
+    @Test
+    public void codeIndexProjectionOfValidatesContextValues() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> CodeIndexProjection.of("KEYS", ""));
+        assertTrue(exception.getMessage().contains("productsCodeIdxProjection"));
+        assertThrows(IllegalArgumentException.class, () -> CodeIndexProjection.of("INCLUDE", " , "));
+
+        assertEquals(List.of("name", "price"), CodeIndexProjection.of("INCLUDE", "name, price").nonKeyAttributes());
+        assertEquals(Collections.emptyList(), CodeIndexProjection.of("ALL", "name").nonKeyAttributes());
+        assertEquals(ProjectionType.KEYS_ONLY, CodeIndexProjection.of("KEYS_ONLY", "").type());
+    }
+
+    @Test
+    public void productsCodeIndexIsKeysOnlyByDefault() {
+        Template template = Template.fromStack(stack(app(Collections.emptyMap()), "ProductsService"));
+
+        template.hasResourceProperties("AWS::DynamoDB::Table", Map.of(
+                "TableName", "products",
+                "GlobalSecondaryIndexes", List.of(Map.of(
+                        "IndexName", "codeIdx",
+                        "Projection", Map.of("ProjectionType", "KEYS_ONLY")))));
+    }
+
+    @Test
+    public void sloCompositeAlarmsNotifyAlarmTopic() {
+        MonitoringStack monitoringStack = (MonitoringStack) stack(app(Collections.emptyMap()), "Monitoring");
+        Template template = Template.fromStack(monitoringStack);
+        String alarmTopicId = monitoringStack.getLogicalId(
+                (CfnElement) monitoringStack.getAlarmTopic().getNode().getDefaultChild());
+
+        //6個route x (可用性、延遲) x (Fast、Slow)
+        template.resourceCountIs("AWS::CloudWatch::CompositeAlarm", 24);
+        template.allResourcesProperties("AWS::CloudWatch::CompositeAlarm", Map.of(
+                "AlarmActions", List.of(Map.of("Ref", alarmTopicId))));
+    }
+
+    @Test
+    public void samplingRuleNamesArePrefixedAndPassedToTasks() {
+        Stack stack = new Stack(new App(), "ProductsService");
+        List<String> ruleNames = TracingSampling.addRules(stack, "productsservice",
+                List.of(SamplingRoute.route("GetById", "GET", "/api/products/*", 0.01, 1, 100)),
+                SamplingRoute.fallback("Default", 0.05, 1));
+
+        assertEquals(List.of("ProductsService-GetById", "ProductsService-Default"), ruleNames);
+        assertEquals("ProductsService-GetById,ProductsService-Default",
+                TracingSampling.environment(ruleNames).get("AWS_XRAY_SAMPLING_RULES"));
+        assertThrows(IllegalArgumentException.class, () -> TracingSampling.addRules(stack, "productsservice",
+                List.of(), SamplingRoute.fallback("DefaultRuleForEveryRoute", 0.05, 1)));
+    }
+
+    @Test
+    public void targetTrafficSettingsValidatesSlowStart() {
+        assertThrows(IllegalArgumentException.class, () -> new TargetTrafficSettings(
+                10, TargetGroupLoadBalancingAlgorithmType.ROUND_ROBIN, 60, 30, true, true));
+        assertThrows(IllegalArgumentException.class, () -> new TargetTrafficSettings(
+                60, TargetGroupLoadBalancingAlgorithmType.LEAST_OUTSTANDING_REQUESTS, 60, 30, true, true));
+
+        assertNull(new TargetTrafficSettings(
+                0, TargetGroupLoadBalancingAlgorithmType.LEAST_OUTSTANDING_REQUESTS, 60, 30, true, true)
+                .slowStart());
+        assertEquals(60, new TargetTrafficSettings(
+                60, TargetGroupLoadBalancingAlgorithmType.ROUND_ROBIN, 60, 30, true, true)
+                .slowStart().toSeconds().intValue());
+    }
+
+    @Test
+    public void rolloutSettingsRequiresRoomForNewTasks() {
+        assertThrows(IllegalArgumentException.class, () -> new RolloutSettings(100, 100, false));
+
+        assertNull(new RolloutSettings(100, 200, false).appHealthCheck(8080));
+        assertNotNull(new RolloutSettings(100, 200, true).appHealthCheck(8080));
+    }
+}